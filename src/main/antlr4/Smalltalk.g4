@@ -1,85 +1,94 @@
 grammar Smalltalk;
 
-script : rootSequence ws EOF;
-rootSequence : temps? ws rootStatements ws terminatingExpression?;
-rootStatements : (rootTerminatedExpression | methodGroup ws)* ;
-rootTerminatedExpression : expression ws PERIOD ws;
+// Whitespace and comments are on hidden channel. Where Smalltalk tells tokens apart by whitespace (binary selectors,
+// keyword selectors) lexer makes single tokens of the adjacent characters, minus is sign of number only when the
+// number follows it without whitespace (see signed()).
+@parser::members {
+    // Next token is minus directly followed by the token after it.
+    private boolean signed() {
+        return _input.LT(1).getStopIndex() + 1 == _input.LT(2).getStartIndex();
+    }
+}
+
+script : rootSequence EOF;
+rootSequence : temps? rootStatements terminatingExpression?;
+rootStatements : (rootTerminatedExpression | methodGroup)* ;
+rootTerminatedExpression : expression PERIOD;
 terminatingExpression : expression | answer;
 
-sequence : temps? ws statements? ws;
-ws : (SEP | EOL | COMMENT)*;
-temps : ws PIPE (ws IDENTIFIER)+ ws PIPE;
-statements : answer ws # StatementAnswer
-           | expressions ws PERIOD ws answer # StatementExpressionsAnswer
-           | expressions PERIOD? ws # StatementExpressions
+sequence : temps? statements?;
+temps : PIPE IDENTIFIER+ PIPE;
+statements : answer # StatementAnswer
+           | expressions PERIOD answer # StatementExpressionsAnswer
+           | expressions PERIOD? # StatementExpressions
            ;
-answer : CARROT ws expression ws PERIOD?;
+answer : CARROT expression PERIOD?;
 expression : assignment | cascade | keywordSend | binarySend | primitive;
 expressions : expression expressionList*;
-expressionList : PERIOD ws expression;
-cascade : (keywordSend | binarySend) (ws SEMI_COLON ws message)+;
+expressionList : PERIOD expression;
+cascade : (keywordSend | binarySend) (SEMI_COLON message)+;
 message : binaryMessage | unaryMessage | keywordMessage;
-assignment : variable ws ASSIGNMENT ws expression;
+assignment : variable ASSIGNMENT expression;
 variable : IDENTIFIER;
 binarySend : unarySend binaryTail?;
-unarySend : operand ws unaryTail?;
+unarySend : operand unaryTail?;
 keywordSend : binarySend keywordMessage;
-keywordMessage : ws (keywordPair ws)+;
-keywordPair : KEYWORD ws binarySend ws;
+keywordMessage : keywordPair+;
+keywordPair : KEYWORD binarySend;
 operand : literal | reference | subexpression;
-subexpression : OPEN_PAREN ws expression ws CLOSE_PAREN;
+subexpression : OPEN_PAREN expression CLOSE_PAREN;
 literal : runtimeLiteral | parsetimeLiteral;
 runtimeLiteral : dynamicDictionary | dynamicArray | block;
-block : BLOCK_START blockParamList? ws (PIPE ws)? sequence BLOCK_END;
-blockParamList : (ws BLOCK_PARAM)+;
-dynamicDictionary : DYNDICT_START ws expressions? ws DYNARR_END;
-dynamicArray : DYNARR_START ws expressions? ws DYNARR_END;
+block : BLOCK_START blockParamList? PIPE? sequence BLOCK_END;
+blockParamList : BLOCK_PARAM+;
+dynamicDictionary : DYNDICT_START expressions? DYNARR_END;
+dynamicArray : DYNARR_START expressions? DYNARR_END;
 parsetimeLiteral : charConstant | pseudoVariable | number | literalArray | string | symbol;
 number : numberExp | hex | stFloat | stInteger;
 numberExp : (stFloat | stInteger) EXP stInteger;
 charConstant : CHARACTER_CONSTANT;
-hex : MINUS? HEX;
-stInteger : MINUS? DIGIT+;
-stFloat : MINUS? DIGIT+ PERIOD DIGIT+;
+hex : ({signed()}? MINUS)? HEX;
+stInteger : ({signed()}? MINUS)? DIGITS;
+stFloat : ({signed()}? MINUS)? FLOAT;
 pseudoVariable : RESERVED_WORD;
 string : STRING;
 symbol : HASH bareSymbol;
-primitive : LT ws KEYWORD ws DIGIT+ ws GT;
-bareSymbol : (IDENTIFIER | binarySelector | RESERVED_WORD) | KEYWORD+ | string | PIPE+;
+primitive : LT KEYWORD DIGITS GT;
+bareSymbol : (IDENTIFIER | binarySelector | RESERVED_WORD) | KEYWORD | KEYWORDS | string;
 literalArray : LITARR_START literalArrayRest;
-literalArrayRest : (ws (parsetimeLiteral | bareLiteralArray | bareSymbol))* ws CLOSE_PAREN;
+literalArrayRest : (parsetimeLiteral | bareLiteralArray | bareSymbol)* CLOSE_PAREN;
 bareLiteralArray : OPEN_PAREN literalArrayRest;
-unaryTail : unaryMessage ws unaryTail? ws;
-unaryMessage : ws unarySelector;
+unaryTail : unaryMessage unaryTail?;
+unaryMessage : unarySelector;
 unarySelector : IDENTIFIER;
 keywords : KEYWORD+;
 reference : variable;
 binaryTail : binaryMessage binaryTail?;
-binaryMessage : ws binarySelector ws (unarySend | operand);
-binarySelector : (BINARY_SELECTOR_CHAR | PIPE | MINUS)+;
+binaryMessage : binarySelector (unarySend | operand);
+binarySelector : BINARY_SELECTOR_CHAR | PIPE | MINUS | BINARY_SELECTOR;
 
 //Methods declaration
-methodGroup : EXCLAMATION SEP* className SEP+ classSelector? methodHeaderKeywords EXCLAMATION
-              ws (methodDeclaration ws)+
+methodGroup : EXCLAMATION className classSelector? methodHeaderKeywords EXCLAMATION
+              methodDeclaration+
               EXCLAMATION
              ;
 className : IDENTIFIER;
-classSelector : IDENTIFIER SEP+;
-methodHeaderKeywords: KEYWORD SEP* STRING (SEP+ KEYWORD SEP* STRING)*;
-methodDeclaration : methodHeader (SEP | COMMENT)* EOL
+classSelector : IDENTIFIER;
+methodHeaderKeywords: KEYWORD STRING (KEYWORD STRING)*;
+methodDeclaration : methodHeader
                     sequence
-                    ws EXCLAMATION
+                    EXCLAMATION
                    ;
 methodHeader : IDENTIFIER | binaryMethodHeader | keywordMethodHeader;
-binaryMethodHeader : binarySelector SEP* IDENTIFIER;
-keywordMethodHeader : KEYWORD SEP* IDENTIFIER (SEP+ KEYWORD SEP* IDENTIFIER)*;
+binaryMethodHeader : binarySelector IDENTIFIER;
+keywordMethodHeader : KEYWORD IDENTIFIER (KEYWORD IDENTIFIER)*;
 
 EXCLAMATION : '!';
-EOL : '\r'? '\n';
-SEP : [ \t];
+EOL : '\r'? '\n' -> channel(HIDDEN);
+SEP : [ \t] -> channel(HIDDEN);
 
 STRING : '\'' (~[\\'] | '\\\\' | '\\\'' | '\'\'' | '\\t' | '\\n' )* '\'';
-COMMENT : '"' (.)*? '"';
+COMMENT : '"' (.)*? '"' -> channel(HIDDEN);
 BLOCK_START : '[';
 BLOCK_END : ']';
 CLOSE_PAREN : ')';
@@ -91,6 +100,7 @@ BINARY_SELECTOR_CHAR : ('\\' | '+' | '*' | '/' | '=' | '>' | '<' | ',' | '@' | '
 LT : '<';
 GT : '>';
 MINUS : '-';
+BINARY_SELECTOR : (BINARY_SELECTOR_CHAR | MINUS) SELECTOR_CHAR+; // Not starting with '|', which ends block parameters.
 RESERVED_WORD : 'nil' | 'true' | 'false' | 'self' | 'super';
 IDENTIFIER : [a-zA-Z]+[a-zA-Z0-9_]*;
 CARROT : '^';
@@ -104,7 +114,10 @@ LITARR_START : '#(';
 DYNDICT_START : '#{';
 DYNARR_END : '}';
 DYNARR_START : '{';
-DIGIT : [0-9];
+FLOAT : DIGITS PERIOD DIGITS;
+DIGITS : [0-9]+;
 KEYWORD : IDENTIFIER COLON;
+KEYWORDS : KEYWORD KEYWORD+;
 BLOCK_PARAM : COLON IDENTIFIER;
 CHARACTER_CONSTANT : DOLLAR ('!!' | .); //Symbol $!! should be parsed as $! inside of method declaration
+fragment SELECTOR_CHAR : BINARY_SELECTOR_CHAR | PIPE | MINUS;
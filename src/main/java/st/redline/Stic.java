@@ -17,6 +17,7 @@ import java.util.stream.Collectors;
 public class Stic {
 
     private final String scriptFilename;
+    private final boolean generateInstanceClasses;
     private static final String[] levelNames;
 
     static {
@@ -36,6 +37,10 @@ public class Stic {
                 .optionalArg(true)
                 .argName("LOGLEVEL")
                 .build());
+        options.addOption(Option.builder("f")
+                .longOpt("fields")
+                .desc("generate JVM classes with a field per instance variable for Smalltalk classes")
+                .build());
 
         final CommandLine cli = parser.parse(options, args);
 
@@ -60,13 +65,19 @@ public class Stic {
 
             //Run all files from arguments
             for (String filename : cli.getArgs()) {
-                new Stic(filename).run();
+                new Stic(filename, cli.hasOption("fields")).run();
             }
+            JarRegistry.shared().close();
         }
     }
 
     public Stic(String scriptFilename) {
+        this(scriptFilename, false);
+    }
+
+    public Stic(String scriptFilename, boolean generateInstanceClasses) {
         this.scriptFilename = scriptFilename;
+        this.generateInstanceClasses = generateInstanceClasses;
     }
 
     private void run() throws ClassNotFoundException, InstantiationException, IllegalAccessException {
@@ -83,7 +94,10 @@ public class Stic {
     }
 
     private SmalltalkClassLoader classLoader() {
-        return new SmalltalkClassLoader(currentClassLoader(), sourceFinder(), bootstrapper());
+        final SmalltalkClassLoader classLoader = new SmalltalkClassLoader(currentClassLoader(), sourceFinder(), bootstrapper());
+        if (generateInstanceClasses)
+            classLoader.generatesInstanceClasses(true);
+        return classLoader;
     }
 
     private Bootstrapper bootstrapper() {
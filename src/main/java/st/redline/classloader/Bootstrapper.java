@@ -5,6 +5,14 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import st.redline.core.*;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
 import static st.redline.core.PrimSubclassMethod.PRIM_SUBCLASS_METHOD;
 
 public class Bootstrapper {
@@ -12,54 +20,87 @@ public class Bootstrapper {
 
     public void bootstrap(SmalltalkClassLoader classLoader) {
         log.info("Start bootstrapping ...");
-        setContextClassLoader(classLoader);
 
         classLoader.beginBootstrapping();
-        createKernelObjectsHierarchy(classLoader);
         classLoader.importAll("st.redline.kernel");
-        loadKernelObjects(classLoader);
+        final Path imageFile = imageFile();
+        final String imageKey = imageFile != null ? imageKey(classLoader) : null;
+        if (imageKey == null || !ImageSnapshot.restore(classLoader, imageFile, imageKey)) {
+            createKernelObjectsHierarchy(classLoader);
+            loadKernelObjects(classLoader);
+            if (imageKey != null)
+                ImageSnapshot.save(classLoader, imageFile, imageKey);
+        }
+        preallocateInstances(classLoader);
         classLoader.endBootstrapping();
         log.info("Finished bootstrapping ...");
     }
 
+    /* Kernel objects are restored from image snapshot when system property redline.image names the file.
+       Missing or outdated snapshot is saved again after kernel objects are created.
+     */
+    private Path imageFile() {
+        final String file = System.getProperty(ImageSnapshot.FILE_PROPERTY);
+        return file != null && !file.isEmpty() ? Paths.get(file) : null;
+    }
+
+    // Snapshot is valid only for the compiler and kernel sources it was saved by.
+    private String imageKey(SmalltalkClassLoader classLoader) {
+        final String compilerVersion = CompiledClassCache.compilerVersion();
+        if (compilerVersion == null)
+            return null;
+        final List<Source> sources = new ArrayList<>(classLoader.importedSources("st.redline.kernel"));
+        sources.sort(Comparator.comparing(Source::fullClassName));
+        final MessageDigest digest = CompiledClassCache.sha256();
+        digest.update(compilerVersion.getBytes(StandardCharsets.UTF_8));
+        for (Source source : sources) {
+            digest.update((byte) 0);
+            digest.update(source.fullClassName().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source.contents().getBytes(StandardCharsets.UTF_8));
+        }
+        return CompiledClassCache.hex(digest.digest());
+    }
+
     private void createKernelObjectsHierarchy(SmalltalkClassLoader classLoader) {
         // Create Kernel Objects and Classes we need to start Runtime.
-        PrimClass metaclass = createKernelClass("Metaclass", true);
-        PrimClass metaclassClass = createKernelClass("Metaclass class", true);
+        PrimClass metaclass = createKernelClass(classLoader, "Metaclass", true);
+        PrimClass metaclassClass = createKernelClass(classLoader, "Metaclass class", true);
         metaclassClass.selfClass(metaclass);
         metaclass.selfClass(metaclassClass);
 
-        PrimClass objectClass = createKernelClass("Object class", true);
+        PrimClass objectClass = createKernelClass(classLoader, "Object class", true);
         objectClass.selfClass(metaclass);
-        PrimClass object = createKernelClass("Object", false);
+        PrimClass object = createKernelClass(classLoader, "Object", false);
         object.selfClass(objectClass);
 
-        PrimClass behavior = createKernelClass("Behavior", object);
-        PrimClass classDescription = createKernelClass("ClassDescription", behavior);
-        PrimClass klass = createKernelClass("Class", classDescription);
+        PrimClass behavior = createKernelClass(classLoader, "Behavior", object);
+        PrimClass classDescription = createKernelClass(classLoader, "ClassDescription", behavior);
+        PrimClass klass = createKernelClass(classLoader, "Class", classDescription);
 
         objectClass.superclass(klass);
         metaclass.superclass(classDescription);
         metaclassClass.superclass(classDescription.selfClass());
 
         //Create util classes
-        PrimClass undefinedObject = createKernelClass("UndefinedObject", object);
-        PrimClass blockClosure = createKernelClass("BlockClosure", object);
-        PrimClass compiledMethod = createKernelClass("CompiledMethod", object);
-        PrimClass booleanObject = createKernelClass("Boolean", object);
-        PrimClass trueObject = createKernelClass("True", booleanObject);
-        PrimClass falseObject = createKernelClass("False", booleanObject);
-        PrimClass collection = createKernelClass("Collection", object);
-        PrimClass sequenceableCollection = createKernelClass("SequenceableCollection", collection);
-        PrimClass arrayedCollection = createKernelClass("ArrayedCollection", sequenceableCollection);
-        PrimClass string = createKernelClass("String", arrayedCollection);
-        PrimClass symbol = createKernelClass("Symbol", string);
-        PrimClass transcript = createKernelClass("Transcript", object);
-        PrimClass magnitude = createKernelClass("Magnitude", object);
-        PrimClass number = createKernelClass("Number", magnitude);
-        PrimClass random = createKernelClass("Random", number);
-        PrimClass _integer = createKernelClass("Integer", number);
-        PrimClass _float = createKernelClass("Float", number);
+        PrimClass undefinedObject = createKernelClass(classLoader, "UndefinedObject", object);
+        PrimClass blockClosure = createKernelClass(classLoader, "BlockClosure", object);
+        PrimClass compiledMethod = createKernelClass(classLoader, "CompiledMethod", object);
+        PrimClass booleanObject = createKernelClass(classLoader, "Boolean", object);
+        PrimClass trueObject = createKernelClass(classLoader, "True", booleanObject);
+        PrimClass falseObject = createKernelClass(classLoader, "False", booleanObject);
+        PrimClass collection = createKernelClass(classLoader, "Collection", object);
+        PrimClass sequenceableCollection = createKernelClass(classLoader, "SequenceableCollection", collection);
+        PrimClass arrayedCollection = createKernelClass(classLoader, "ArrayedCollection", sequenceableCollection);
+        PrimClass string = createKernelClass(classLoader, "String", arrayedCollection);
+        PrimClass symbol = createKernelClass(classLoader, "Symbol", string);
+        PrimClass transcript = createKernelClass(classLoader, "Transcript", object);
+        PrimClass magnitude = createKernelClass(classLoader, "Magnitude", object);
+        PrimClass number = createKernelClass(classLoader, "Number", magnitude);
+        PrimClass random = createKernelClass(classLoader, "Random", number);
+        PrimClass _integer = createKernelClass(classLoader, "Integer", number);
+        PrimClass _float = createKernelClass(classLoader, "Float", number);
+        PrimClass character = createKernelClass(classLoader, "Character", magnitude);
 
         // Fix up bootstrapped Kernel Objects Metaclass instance.
         klass.selfClass().selfClass(metaclass);
@@ -67,9 +108,6 @@ public class Bootstrapper {
         // Initialise special Smalltalk circular hierarchy.
         object.addMethod(PrimDoesNotUnderstand.doesNotUnderstand_SELECTOR, PrimDoesNotUnderstand.PRIM_DOES_NOT_UNDERSTAND);
 
-        // Let subclass primitive know the Metaclass instance - used when subclassing.
-        PRIM_SUBCLASS_METHOD.metaclass(metaclass);
-
         // Add basicAddSelector:withMethod: to Behaviour
         behavior.addMethod("basicAddSelector:withMethod:", new PrimAddMethod());
         addSumblassMethods(klass);
@@ -113,6 +151,7 @@ public class Bootstrapper {
         classLoader.cacheObject("st.redline.kernel.Random", random);
         classLoader.cacheObject("st.redline.kernel.Integer", _integer);
         classLoader.cacheObject("st.redline.kernel.Float", _float);
+        classLoader.cacheObject("st.redline.kernel.Character", character);
         classLoader.cacheObject("st.redline.kernel.Smalltalk", smalltalkImage);
     }
 
@@ -125,30 +164,28 @@ public class Bootstrapper {
         klass.addMethod("subclass:instanceVariableNames:classVariableNames:poolDictionaries:category:", PRIM_SUBCLASS_METHOD);
     }
 
-    private PrimClass createKernelClass(String className, boolean isMeta) {
-        return new PrimClass(className,isMeta);
+    private PrimClass createKernelClass(SmalltalkClassLoader classLoader, String className, boolean isMeta) {
+        PrimClass primClass = new PrimClass(className,isMeta);
+        primClass.classLoader(classLoader);
+        return primClass;
     }
 
-    private PrimClass createKernelClass(String name, PrimClass superclass) {
-        PrimClass primMeta = new PrimClass(name + " class",true);
+    private PrimClass createKernelClass(SmalltalkClassLoader classLoader, String name, PrimClass superclass) {
+        PrimClass primMeta = createKernelClass(classLoader, name + " class",true);
         primMeta.superclass(superclass.selfClass());
 
-        PrimClass primClass = new PrimClass(name);
+        PrimClass primClass = createKernelClass(classLoader, name, false);
         primClass.superclass(superclass);
         primClass.selfClass(primMeta);
         return primClass;
     }
 
-    private PrimClass createKernelClass(String name, PrimClass superclass, PrimClass metaclass) {
-        PrimClass primClass = createKernelClass(name, superclass);
+    private PrimClass createKernelClass(SmalltalkClassLoader classLoader, String name, PrimClass superclass, PrimClass metaclass) {
+        PrimClass primClass = createKernelClass(classLoader, name, superclass);
         primClass.selfClass().selfClass(metaclass);
         return primClass;
     }
 
-    private void setContextClassLoader(SmalltalkClassLoader classLoader) {
-        Thread.currentThread().setContextClassLoader(classLoader);
-    }
-
     private void loadKernelObjects(SmalltalkClassLoader classLoader) {
         loadObject(classLoader, "st.redline.kernel.Object");
         loadObject(classLoader, "st.redline.kernel.Behavior");
@@ -172,6 +209,13 @@ public class Bootstrapper {
         loadObject(classLoader, "st.redline.kernel.Random");
         loadObject(classLoader, "st.redline.kernel.Integer");
         loadObject(classLoader, "st.redline.kernel.Float");
+        loadObject(classLoader, "st.redline.kernel.Character");
+    }
+
+    // Small Integers and Characters are flyweights, create them before they are used.
+    private void preallocateInstances(SmalltalkClassLoader classLoader) {
+        PrimSmallInteger.preallocate(classLoader.findPrimClass("st.redline.kernel.Integer"));
+        PrimCharacter.preallocate(classLoader.findPrimClass("st.redline.kernel.Character"));
     }
 
     private void loadObject(SmalltalkClassLoader classLoader, String name) {
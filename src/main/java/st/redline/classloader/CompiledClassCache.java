@@ -0,0 +1,196 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.classloader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+import st.redline.compiler.Compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/* Directory of compiled classes, so sources are not compiled again by every run. Class of a source is kept in
+ * file named by the class and a key: hash of source path, source contents and compiler version. Changed source
+ * or different build of the compiler gives a different key, so stale classes are never loaded - they are
+ * compiled again and replace the old file.
+ * Cache is used when system property redline.classCache names the directory.
+ */
+public class CompiledClassCache {
+    private static final Logger log = LogManager.getLogger(CompiledClassCache.class);
+
+    public static final String DIRECTORY_PROPERTY = "redline.classCache";
+    private static final String CLASS_EXTENSION = ".class";
+
+    private static volatile String runningCompilerVersion;
+
+    private final Path directory;
+    private final String compilerVersion;
+
+    public CompiledClassCache(Path directory) {
+        this.directory = usable(directory);
+        this.compilerVersion = this.directory != null ? compilerVersion() : null;
+    }
+
+    private static Path usable(Path directory) {
+        if (directory == null || !Files.exists(directory) || Files.isDirectory(directory))
+            return directory;
+        log.warn("Class cache {} is not a directory, compiled classes are not cached.", directory);
+        return null;
+    }
+
+    public static CompiledClassCache fromSystemProperty() {
+        final String directory = System.getProperty(DIRECTORY_PROPERTY);
+        return new CompiledClassCache(directory != null && !directory.isEmpty() ? Paths.get(directory) : null);
+    }
+
+    public boolean isEnabled() {
+        return directory != null && compilerVersion != null;
+    }
+
+    /* Answer cached class of source, or null when it is not cached, source has changed or cached class can't be read. */
+    public byte[] load(Source source) {
+        if (!isEnabled() || !source.hasContent())
+            return null;
+        final Path file = fileFor(source, key(source));
+        if (!Files.isRegularFile(file))
+            return null;
+        try {
+            log.trace("** load cached class {}", file);
+            final byte[] classData = Files.readAllBytes(file);
+            if (isClass(classData))
+                return classData;
+            log.warn("Cached class {} is corrupt, compiling source.", file);
+            Files.deleteIfExists(file);
+            return null;
+        } catch (IOException e) {
+            log.warn("Can't read cached class {}, compiling source.", file, e);
+            return null;
+        }
+    }
+
+    private static boolean isClass(byte[] classData) {
+        try {
+            new ClassReader(classData).accept(new ClassVisitor(Opcodes.ASM6) {}, ClassReader.SKIP_CODE);
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    public void store(Source source, byte[] classData) {
+        if (!isEnabled() || classData == null)
+            return;
+        final String key = key(source);
+        final Path file = fileFor(source, key);
+        try {
+            Files.createDirectories(file.getParent());
+            // Write other file and move it, so other processes never read partially written class.
+            final Path temporary = Files.createTempFile(file.getParent(), className(source), ".tmp");
+            Files.write(temporary, classData);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            removeStale(source, file);
+        } catch (IOException e) {
+            log.warn("Can't cache class {}.", file, e);
+        }
+    }
+
+    private void removeStale(Source source, Path current) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(current.getParent(), className(source) + "-*" + CLASS_EXTENSION)) {
+            for (Path file : files)
+                if (!file.equals(current))
+                    Files.deleteIfExists(file);
+        }
+    }
+
+    private Path fileFor(Source source, String key) {
+        final String fullClassName = source.fullClassName().replace('.', '/');
+        final int index = fullClassName.lastIndexOf('/');
+        final Path packageDirectory = index == -1 ? directory : directory.resolve(fullClassName.substring(0, index));
+        return packageDirectory.resolve(className(source) + "-" + key + CLASS_EXTENSION);
+    }
+
+    private static String className(Source source) {
+        final String fullClassName = source.fullClassName().replace('.', '/');
+        return fullClassName.substring(fullClassName.lastIndexOf('/') + 1);
+    }
+
+    private String key(Source source) {
+        final MessageDigest digest = sha256();
+        digest.update(compilerVersion.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(source.classpath()).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(source.fullClassName().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(source.contents().getBytes(StandardCharsets.UTF_8));
+        return hex(digest.digest());
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /* Generated classes depend on the compiler and on runtime classes they link to, so version is the build of
+     * Redline the compiler was loaded from: size and time of the jar, or hash of classes in classes directory
+     * (build tools rewrite classes which did not change, so their time tells nothing). Precompiled classes
+     * (see PrecompiledClasses) are not part of the compiler.
+     * Answer null, which disables the cache, when it can't be told. Version is read once, compiler does not change
+     * while it runs.
+     */
+    static String compilerVersion() {
+        String version = runningCompilerVersion;
+        if (version == null)
+            runningCompilerVersion = version = readCompilerVersion();
+        return version;
+    }
+
+    private static String readCompilerVersion() {
+        try {
+            final File location = new File(Compiler.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            final String version = Compiler.class.getPackage().getImplementationVersion();
+            if (!location.isDirectory())
+                return version + ":" + location + ":" + location.length() + ":" + location.lastModified();
+            final MessageDigest digest = sha256();
+            digestClasses(digest, location.toPath());
+            return version + ":" + hex(digest.digest());
+        } catch (Exception e) {
+            log.warn("Can't tell compiler version, compiled classes are not cached.", e);
+            return null;
+        }
+    }
+
+    private static void digestClasses(MessageDigest digest, Path directory) throws IOException {
+        final List<Path> classes = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.filter(file -> file.toString().endsWith(CLASS_EXTENSION))
+                 .filter(file -> !directory.relativize(file).startsWith(PrecompiledClasses.DIRECTORY))
+                 .forEach(classes::add);
+        }
+        Collections.sort(classes);
+        for (Path file : classes) {
+            digest.update(directory.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(Files.readAllBytes(file));
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+}
@@ -1,7 +1,11 @@
 /* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
 package st.redline.classloader;
 
+import org.antlr.v4.runtime.CharStream;
+
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 public class FileSourceReader implements SourceReader {
 
@@ -11,37 +15,11 @@ public class FileSourceReader implements SourceReader {
         this.file = file;
     }
 
-    public String contents(LineTransformer lineTransformer) {
-        FileInputStream fis = null;
-        String newLine = System.getProperty("line.separator");
-        StringBuilder contents = new StringBuilder();
-        try {
-            fis = new FileInputStream(file);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(fis));
-            String line;
-            line = lineTransformer.begin();
-            if (line != null)
-                contents.append(line);
-            while ((line = reader.readLine()) != null) {
-                contents.append(lineTransformer.transform(line + newLine));
-            }
-            line = lineTransformer.end();
-            if (line != null)
-                contents.append(line);
-            return contents.toString();
-        } catch (Exception e) {
+    public CharStream stream(String sourceName) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return SourceReader.stream(channel, channel.size(), sourceName);
+        } catch (IOException e) {
             throw new RuntimeException(e);
-        } finally {
-            close(fis);
         }
     }
-
-    private void close(InputStream inputStream) {
-        if (inputStream != null)
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                System.err.println(e.getMessage());
-            }
-    }
 }
@@ -0,0 +1,79 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.classloader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.*;
+
+import static st.redline.classloader.SmalltalkSourceFile.CLASS_SEPARATOR;
+import static st.redline.classloader.SmalltalkSourceFile.SOURCE_EXTENSION;
+
+/* Jars sources are found in and read from. Each jar is opened once and its source entries are indexed by
+ * package when it is opened, so finding sources of a package doesn't go through every entry of the jar again.
+ * Closing the registry closes the jars, a jar used after is opened (and indexed) again.
+ */
+public class JarRegistry implements Closeable {
+    private static final Logger log = LogManager.getLogger(JarRegistry.class);
+
+    private static final JarRegistry shared = new JarRegistry();
+
+    private final Map<String, IndexedJar> jars = new ConcurrentHashMap<>();
+
+    public static JarRegistry shared() {
+        return shared;
+    }
+
+    public JarFile jarFile(String path) {
+        return jar(path).jarFile;
+    }
+
+    /* Names of source entries in package, package given as path (st/redline/kernel). */
+    public List<String> sourceEntries(String path, String packagePath) {
+        return jar(path).packages.getOrDefault(packagePath, Collections.emptyList());
+    }
+
+    private IndexedJar jar(String path) {
+        return jars.computeIfAbsent(path, JarRegistry::open);
+    }
+
+    private static IndexedJar open(String path) {
+        try {
+            return new IndexedJar(new JarFile(path));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void close() {
+        for (Iterator<IndexedJar> iterator = jars.values().iterator(); iterator.hasNext();) {
+            final JarFile jarFile = iterator.next().jarFile;
+            iterator.remove();
+            try {
+                jarFile.close();
+            } catch (IOException e) {
+                log.warn("Can't close jar {}.", jarFile.getName(), e);
+            }
+        }
+    }
+
+    private static class IndexedJar {
+
+        private final JarFile jarFile;
+        private final Map<String, List<String>> packages = new HashMap<>();
+
+        IndexedJar(JarFile jarFile) {
+            this.jarFile = jarFile;
+            for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                final String entry = entries.nextElement().getName();
+                final int lastSlash = entry.lastIndexOf(CLASS_SEPARATOR);
+                if (lastSlash > 0 && entry.endsWith(SOURCE_EXTENSION))
+                    packages.computeIfAbsent(entry.substring(0, lastSlash), packagePath -> new ArrayList<>()).add(entry);
+            }
+            log.trace("** indexed {} packages of jar {}", packages.size(), jarFile.getName());
+        }
+    }
+}
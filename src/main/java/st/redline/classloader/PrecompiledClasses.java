@@ -0,0 +1,152 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.classloader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import st.redline.compiler.Compiler;
+import st.redline.compiler.ParseStatistics;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+/* Classes of Smalltalk sources compiled when Redline is built (see main()), shipped in META-INF/redline next to
+ * the sources. Index lists hash of source contents every class was compiled from, so class is used only when
+ * source found at runtime is the same. Precompiled classes are used only when they were built with the compiler
+ * which is running: they are in the same jar, or the classes directory still holds the same compiler.
+ * <code>
+   META-INF/redline/index.properties    version=...  st/redline/kernel/Object=hash ...
+   META-INF/redline/st/redline/kernel/Object.class
+   </code>
+ */
+public class PrecompiledClasses {
+    private static final Logger log = LogManager.getLogger(PrecompiledClasses.class);
+
+    public static final String DIRECTORY = "META-INF/redline";
+    private static final String INDEX = DIRECTORY + "/index.properties";
+    private static final String VERSION = "version";
+
+    private final ClassLoader classLoader;
+    private final Properties index;
+
+    private PrecompiledClasses(ClassLoader classLoader, Properties index) {
+        this.classLoader = classLoader;
+        this.index = index;
+    }
+
+    /* Answer precompiled classes visible to class loader, none when they don't match running compiler. */
+    public static PrecompiledClasses in(ClassLoader classLoader) {
+        final Properties index = new Properties();
+        final URL indexUrl = classLoader != null ? classLoader.getResource(INDEX) : null;
+        if (indexUrl != null) {
+            try (InputStream input = indexUrl.openStream()) {
+                index.load(input);
+            } catch (IOException e) {
+                log.warn("Can't read precompiled classes index {}.", indexUrl, e);
+                index.clear();
+            }
+            if (!isBuiltByRunningCompiler(indexUrl, index.getProperty(VERSION))) {
+                log.info("Precompiled classes {} were built by other compiler, ignoring them.", indexUrl);
+                index.clear();
+            }
+        }
+        return new PrecompiledClasses(classLoader, index);
+    }
+
+    private static boolean isBuiltByRunningCompiler(URL indexUrl, String version) {
+        try {
+            final URL compilerLocation = Compiler.class.getProtectionDomain().getCodeSource().getLocation();
+            if (!new File(compilerLocation.toURI()).isDirectory())
+                return indexUrl.toString().startsWith("jar:" + compilerLocation + "!");
+            return version != null && version.equals(CompiledClassCache.compilerVersion());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /* Answer precompiled class of source, or null when there is none or source has changed. */
+    public byte[] load(Source source) {
+        if (isEmpty() || !source.hasContent())
+            return null;
+        final String hash = index.getProperty(source.fullClassName());
+        if (hash == null || !hash.equals(contentsHash(source)))
+            return null;
+        try (InputStream input = classLoader.getResourceAsStream(DIRECTORY + "/" + source.fullClassName() + ".class")) {
+            if (input == null)
+                return null;
+            log.trace("** load precompiled class {}", source.fullClassName());
+            return readAll(input);
+        } catch (IOException e) {
+            log.warn("Can't read precompiled class {}, compiling source.", source.fullClassName(), e);
+            return null;
+        }
+    }
+
+    private static String contentsHash(Source source) {
+        final MessageDigest digest = CompiledClassCache.sha256();
+        digest.update(source.contents().getBytes(StandardCharsets.UTF_8));
+        return CompiledClassCache.hex(digest.digest());
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int count;
+        while ((count = input.read(buffer)) != -1)
+            output.write(buffer, 0, count);
+        return output.toByteArray();
+    }
+
+    /* Precompile Smalltalk sources of packages found in classes directory into its META-INF/redline.
+       Run by the build after classes are compiled:
+       <code>
+       PrecompiledClasses classesDirectory package [package ...]
+       </code>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2)
+            throw new IllegalArgumentException("Usage: PrecompiledClasses classesDirectory package [package ...]");
+        final Path classesDirectory = Paths.get(args[0]);
+        final Path outputDirectory = classesDirectory.resolve(DIRECTORY);
+        final SourceFinder sourceFinder = new SmalltalkSourceFinder(new SourceFactory(), new String[] { classesDirectory.toString() });
+        final Properties index = new Properties();
+        for (int i = 1; i < args.length; i++)
+            for (Source source : sourceFinder.findIn(args[i]))
+                precompile(source, outputDirectory, index);
+        final String version = CompiledClassCache.compilerVersion();
+        if (version == null)
+            throw new IllegalStateException("Can't tell compiler version.");
+        index.setProperty(VERSION, version);
+        try (OutputStream output = Files.newOutputStream(classesDirectory.resolve(INDEX))) {
+            index.store(output, "Redline precompiled classes");
+        }
+        log.info("Precompiled {} classes into {}", index.size() - 1, outputDirectory);
+        log.info("Precompiled sources {}", ParseStatistics.summary());
+    }
+
+    private static void precompile(Source source, Path outputDirectory, Properties index) throws IOException {
+        final byte[] classData;
+        try {
+            classData = new Compiler(source).compile();
+        } catch (RuntimeException e) {
+            // Source is compiled (and fails) again when it is loaded.
+            log.warn("Can't precompile {}: {}", source.fullClassName(), e.getMessage());
+            return;
+        }
+        if (classData == null)
+            return;
+        final Path file = outputDirectory.resolve(source.fullClassName() + ".class");
+        Files.createDirectories(file.getParent());
+        Files.write(file, classData);
+        index.setProperty(source.fullClassName(), contentsHash(source));
+    }
+}
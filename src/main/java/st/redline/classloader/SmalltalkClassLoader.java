@@ -4,36 +4,73 @@ package st.redline.classloader;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import st.redline.compiler.Compiler;
+import st.redline.core.GlobalBinding;
+import st.redline.core.MethodCache;
 import st.redline.core.PrimClass;
 import st.redline.core.PrimObject;
 
 import java.io.*;
+import java.lang.invoke.SwitchPoint;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 
 import static st.redline.compiler.visitor.SmalltalkGeneratingVisitor.DEFAULT_IMPORTED_PACKAGE;
 
+/* Class loader is the Smalltalk runtime: it compiles and defines classes and keeps global objects. It is parallel
+ * capable - caches are concurrent, compiling and defining class is locked per class name, object is defined by one
+ * thread while others finding it wait until it is cached and every thread has its own stack of execution packages.
+ */
 public class SmalltalkClassLoader extends ClassLoader {
     private static final Logger log = LogManager.getLogger(SmalltalkClassLoader.class);
 
-    // Special Object instance values set during bootstrapping.
-    private static PrimObject NIL;
-    private static PrimObject TRUE;
-    private static PrimObject FALSE;
+    static {
+        registerAsParallelCapable();
+    }
 
     private final SourceFinder sourceFinder;
+    private final PrecompiledClasses precompiledClasses;
+    private final CompiledClassCache compiledClassCache;
     private final Map<String, Class<?>> classCache;
-    private final Map<String, PrimObject> objectCache;
+    private final Map<String, GlobalBinding> objectCache;
+    private final Map<String, ObjectDefinition> definitions;
+    private final Map<Thread, ObjectDefinition> waitingDefinitions;
     private final Map<String, Map<String, Source>> packageCache;
-    private final Stack<String> executionPackageNames;
-    private boolean bootstrapping;
+    private final Map<String, FutureTask<byte[]>> warmClasses;
+    private final ThreadLocal<Deque<String>> executionPackageNames;
+    private final Map<String, SymbolReference> symbolTable;
+    private final ReferenceQueue<PrimObject> collectedSymbols;
+    private final MethodCache methodCache;
+    private SwitchPoint globalsUnchanged = new SwitchPoint();
+    private boolean globalsUnchangedInUse = false;
+    private volatile boolean bootstrapping;
+    // Special Object instance values set during bootstrapping.
+    private PrimObject nil;
+    private PrimObject trueInstance;
+    private PrimObject falseInstance;
+    private volatile boolean generatesInstanceClasses = Boolean.getBoolean("redline.instanceClasses");
+    private volatile boolean warmsPackages = Boolean.getBoolean("redline.warmPackages");
 
     public SmalltalkClassLoader(ClassLoader classLoader, SourceFinder sourceFinder, Bootstrapper bootstrapper) {
         super(classLoader);
         this.sourceFinder = sourceFinder;
-        this.classCache = new HashMap<>();
-        this.objectCache = new HashMap<>();
-        this.packageCache = new HashMap<>();
-        this.executionPackageNames = new Stack<>();
+        this.precompiledClasses = PrecompiledClasses.in(classLoader);
+        this.compiledClassCache = CompiledClassCache.fromSystemProperty();
+        this.classCache = new ConcurrentHashMap<>();
+        this.objectCache = new ConcurrentHashMap<>();
+        this.definitions = new ConcurrentHashMap<>();
+        this.waitingDefinitions = new HashMap<>();
+        this.packageCache = new ConcurrentHashMap<>();
+        this.warmClasses = new ConcurrentHashMap<>();
+        this.executionPackageNames = ThreadLocal.withInitial(ArrayDeque::new);
+        this.symbolTable = new ConcurrentHashMap<>();
+        this.collectedSymbols = new ReferenceQueue<>();
+        this.methodCache = new MethodCache();
 
         // initialize Object cache with bootstrapped objects.
         bootstrapper.bootstrap(this);
@@ -45,10 +82,13 @@ public class SmalltalkClassLoader extends ClassLoader {
         if (cls != null)
             return cls;
         try {
-            boolean requiresInstantiation = !isCachedClass(name);
-            Class<?> messageSendingClass = findClass(name);
-            if (requiresInstantiation)
-                messageSendingClass.newInstance();
+            // Only one thread instantiates the class, others wait for the object it defines.
+            final ObjectDefinition definition = new ObjectDefinition();
+            final ObjectDefinition running = definitions.putIfAbsent(name, definition);
+            if (running == null)
+                define(name, definition);
+            else
+                awaitDefinition(running);
             cls = cachedObject(name);
             if (cls != null)
                 return cls;
@@ -58,6 +98,48 @@ public class SmalltalkClassLoader extends ClassLoader {
         throw new ObjectNotFoundException("Object '" + name + "' was not found.");
     }
 
+    /* Class is defined under its class loading lock, its Smalltalk definition runs without the lock held as it finds
+     * other objects, which may be defined by other threads finding this one.
+     */
+    private void define(String name, ObjectDefinition definition) throws Exception {
+        try {
+            final boolean requiresInstantiation;
+            final Class<?> messageSendingClass;
+            synchronized (getClassLoadingLock(name)) {
+                requiresInstantiation = !isCachedClass(name);
+                messageSendingClass = findClass(name);
+            }
+            if (requiresInstantiation)
+                messageSendingClass.newInstance();
+        } finally {
+            definitions.remove(name, definition);
+            definition.finished();
+        }
+    }
+
+    /* Wait until object being defined by other thread is cached or its definition ends. Thread defining the object
+     * finding it again, or thread other threads (transitively) wait for, doesn't wait. Thread waiting for object
+     * already cached is not waiting anymore, so its definition is waited for.
+     */
+    private void awaitDefinition(ObjectDefinition running) {
+        final Thread current = Thread.currentThread();
+        synchronized (waitingDefinitions) {
+            for (ObjectDefinition definition = running; definition != null && !definition.isFinished(); definition = waitingDefinitions.get(definition.thread))
+                if (definition.thread == current)
+                    return;
+            waitingDefinitions.put(current, running);
+        }
+        try {
+            running.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (waitingDefinitions) {
+                waitingDefinitions.remove(current);
+            }
+        }
+    }
+
     public PrimClass findPrimClass(String name) {
         log.trace("** findPrimClass {}", name);
         PrimObject cls = findObject(name);
@@ -69,12 +151,49 @@ public class SmalltalkClassLoader extends ClassLoader {
 
     protected PrimObject cachedObject(String name) {
         log.trace("** cachedObject {}", name);
-        return objectCache.get(name);
+        final GlobalBinding binding = objectCache.get(name);
+        return binding != null ? binding.value() : null;
     }
 
+    /* Caching object again under the same name rebinds the name, see bindingAt(). */
     public void cacheObject(String name, PrimObject object) {
         log.trace("** cacheObject {} as {}", object, name);
-        objectCache.put(name, object);
+        final GlobalBinding binding = objectCache.get(name);
+        if (binding != null) {
+            binding.value(object);
+        } else {
+            objectCache.computeIfAbsent(name, GlobalBinding::new).value(object);
+            globalsChanged();
+        }
+        final ObjectDefinition definition = definitions.get(name);
+        if (definition != null)
+            definition.finished();
+    }
+
+    /* Switch point valid until new global is cached or package is imported, which may change what names resolve to
+       (see importForBy()). */
+    public synchronized SwitchPoint globalsSwitchPoint() {
+        globalsUnchangedInUse = true;
+        return globalsUnchanged;
+    }
+
+    private synchronized void globalsChanged() {
+        if (!globalsUnchangedInUse)
+            return;
+        final SwitchPoint changed = globalsUnchanged;
+        globalsUnchanged = new SwitchPoint();
+        globalsUnchangedInUse = false;
+        SwitchPoint.invalidateAll(new SwitchPoint[] { changed });
+    }
+
+    /* Answer binding of cached object, binding answers the object cached by name last. */
+    public GlobalBinding bindingAt(String name) {
+        return objectCache.get(name);
+    }
+
+    /* Bindings of all cached objects, see ImageSnapshot. */
+    public Collection<GlobalBinding> bindings() {
+        return Collections.unmodifiableCollection(objectCache.values());
     }
 
     public boolean isCachedObject(String name) {
@@ -86,30 +205,24 @@ public class SmalltalkClassLoader extends ClassLoader {
         Class<?> cls = cachedClass(name);
         if (cls != null)
             return cls;
-        byte[] classData = loadClassData(name);
-        if (classData == null)
-            return super.findClass(name);
-        cls = defineClass(null, classData, 0, classData.length);
-        saveClass(classData, name);
-        cacheClass(cls, name);
-        return cls;
+        synchronized (getClassLoadingLock(name)) {
+            cls = cachedClass(name);
+            if (cls != null)
+                return cls;
+            byte[] classData = loadClassData(name);
+            if (classData == null)
+                return super.findClass(name);
+            cls = defineClass(null, classData, 0, classData.length);
+            cacheClass(cls, name);
+            return cls;
+        }
     }
 
     public Class<?> compileToClass(Source stSource) {
-        final byte[] classData = compile(stSource);
-        saveClass(classData, stSource.className());
-        final Class<?> cls = defineClass(null, classData, 0, classData.length);
-        return cls;
-    }
-
-    private void saveClass(byte[] classData, String name) {
-        FileOutputStream fos = null;
-        try {
-            fos = new FileOutputStream("D:\\tmp\\redline\\" + name + ".class");
-            fos.write(classData);
-            fos.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+        synchronized (getClassLoadingLock(stSource.className())) {
+            final byte[] classData = compile(stSource);
+            final Class<?> cls = defineClass(null, classData, 0, classData.length);
+            return cls;
         }
     }
 
@@ -134,6 +247,37 @@ public class SmalltalkClassLoader extends ClassLoader {
         return defineClass(null, bytes, 0, bytes.length);
     }
 
+    /* Answer given class name, or name with numeric suffix when class with that name is already defined. */
+    public String uniqueClassName(String name) {
+        String uniqueName = name;
+        for (int i = 1; findLoadedClass(uniqueName) != null; i++)
+            uniqueName = name + i;
+        return uniqueName;
+    }
+
+    /* When true Smalltalk classes get generated JVM class with a field per instance variable,
+       otherwise instances are PrimObjects storing instance variables in slots array.
+       Default is taken from system property redline.instanceClasses.
+    */
+    public boolean generatesInstanceClasses() {
+        return generatesInstanceClasses;
+    }
+
+    public void generatesInstanceClasses(boolean generate) {
+        generatesInstanceClasses = generate;
+    }
+
+    /* When true importAll() compiles all sources of the package in parallel, so classes are compiled when they
+       are loaded. Default is taken from system property redline.warmPackages.
+    */
+    public boolean warmsPackages() {
+        return warmsPackages;
+    }
+
+    public void warmsPackages(boolean warm) {
+        warmsPackages = warm;
+    }
+
     @SuppressWarnings("unchecked")
     private Source findSource(String name) {
         Source source = sourceFinder.find(name);
@@ -143,8 +287,40 @@ public class SmalltalkClassLoader extends ClassLoader {
         return imports.getOrDefault(source.className(), source);
     }
 
+    /* Answer class of source compiled by warming its package, otherwise compile it now. Class which is not compiled
+       by the pool yet is compiled by this thread rather than waiting for the pool.
+    */
     private byte[] compile(Source source) {
-        return compiler(source).compile();
+        final FutureTask<byte[]> warmClass = warmClasses.remove(source.fullClassName());
+        if (warmClass == null)
+            return compileSource(source);
+        warmClass.run();
+        try {
+            return warmClass.get();
+        } catch (ExecutionException e) {
+            // Fail as if source was compiled by this thread.
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /* Answer precompiled class of source, or class from compiled class cache. Compile source when it is neither. */
+    private byte[] compileSource(Source source) {
+        byte[] classData = precompiledClasses.load(source);
+        if (classData != null)
+            return classData;
+        classData = compiledClassCache.load(source);
+        if (classData != null)
+            return classData;
+        classData = compiler(source).compile();
+        compiledClassCache.store(source, classData);
+        return classData;
     }
 
     private Compiler compiler(Source source) {
@@ -159,32 +335,80 @@ public class SmalltalkClassLoader extends ClassLoader {
         bootstrapping = false;
     }
 
+    public MethodCache methodCache() {
+        return methodCache;
+    }
+
     public boolean isBootstrapping() {
         return bootstrapping;
     }
 
     public void nilInstance(PrimObject nil) {
-        NIL = nil;
+        this.nil = nil;
     }
 
     public PrimObject nilInstance() {
-        return NIL;
+        return nil;
     }
 
     public void falseInstance(PrimObject instance) {
-        FALSE = instance;
+        falseInstance = instance;
     }
 
     public PrimObject falseInstance() {
-        return FALSE;
+        return falseInstance;
     }
 
     public void trueInstance(PrimObject instance) {
-        TRUE = instance;
+        trueInstance = instance;
     }
 
     public PrimObject trueInstance() {
-        return TRUE;
+        return trueInstance;
+    }
+
+    /* Symbols are interned, so equal symbols are identical objects. Symbol table references symbols weakly:
+     * symbol which is not referenced by code or objects anymore is collected and created again when needed.
+     */
+    public boolean isInternedSymbol(String symbol) {
+        return internedSymbolAt(symbol) != null;
+    }
+
+    public PrimObject internedSymbolAt(String symbol) {
+        final SymbolReference reference = symbolTable.get(symbol);
+        return reference != null ? reference.get() : null;
+    }
+
+    /* Intern symbol object unless equal symbol is interned already. Answer interned symbol. */
+    public PrimObject internSymbolAtPut(String symbol, PrimObject symbolObject) {
+        removeCollectedSymbols();
+        final SymbolReference newReference = new SymbolReference(symbol, symbolObject, collectedSymbols);
+        while (true) {
+            final SymbolReference reference = symbolTable.get(symbol);
+            final PrimObject interned = reference != null ? reference.get() : null;
+            if (interned != null)
+                return interned;
+            if (reference == null ? symbolTable.putIfAbsent(symbol, newReference) == null
+                                  : symbolTable.replace(symbol, reference, newReference))
+                return symbolObject;
+        }
+    }
+
+    /* Answer symbols interned and not collected yet. */
+    public List<PrimObject> internedSymbols() {
+        final List<PrimObject> symbols = new ArrayList<>();
+        for (SymbolReference reference : symbolTable.values()) {
+            final PrimObject symbol = reference.get();
+            if (symbol != null)
+                symbols.add(symbol);
+        }
+        return symbols;
+    }
+
+    private void removeCollectedSymbols() {
+        SymbolReference reference;
+        while ((reference = (SymbolReference) collectedSymbols.poll()) != null)
+            symbolTable.remove(reference.symbol, reference);
     }
 
     public Class loadScript(String name) throws ClassNotFoundException {
@@ -221,29 +445,84 @@ public class SmalltalkClassLoader extends ClassLoader {
         return name.replace(SmalltalkSourceFile.CLASS_SEPARATOR, '.');
     }
 
+    /* Package imports are collected before they are published, so other threads never see partial package. */
     public void importAll(String packageName) {
         log.trace("** importAll: {} {}", packageName, packageCache.containsKey(packageName));
-        if (!packageCache.containsKey(packageName))
+        if (!packageCache.containsKey(packageName)) {
+            final Map<String, Source> imports = new HashMap<>();
             for (Source source : sourceFinder.findIn(packageName))
-                addImport(packageName, source);
+                addImport(imports, packageName, source);
+            if (packageCache.putIfAbsent(packageName, imports) == null) {
+                globalsChanged();
+                if (warmsPackages)
+                    warm(imports.values());
+            }
+        }
+    }
+
+    /* Compile sources on common fork-join pool. Generated classes extend PrimModule and refer to other classes by name
+       only, so they are defined in any order - each when it is loaded first, see compile().
+    */
+    private void warm(Collection<Source> sources) {
+        log.trace("** warm {} sources", sources.size());
+        for (Source source : sources)
+            if (!isCachedClass(dotted(source.fullClassName())) && !warmClasses.containsKey(source.fullClassName())) {
+                final FutureTask<byte[]> warmClass = new FutureTask<>(() -> compileSource(source));
+                if (warmClasses.putIfAbsent(source.fullClassName(), warmClass) == null)
+                    ForkJoinPool.commonPool().execute(warmClass);
+            }
     }
 
-    private void addImport(String packageName, Source source) {
+    /* Answer sources imported by importAll() of the package. */
+    @SuppressWarnings("unchecked")
+    public Collection<Source> importedSources(String packageName) {
+        return Collections.unmodifiableCollection(packageCache.getOrDefault(packageName, Collections.EMPTY_MAP).values());
+    }
+
+    private void addImport(Map<String, Source> imports, String packageName, Source source) {
         log.trace("** addImport: {} {}:{}", packageName, source.className(), source.fullClassName());
-        Map<String, Source> objects = packageCache.getOrDefault(packageName, new HashMap<>());
-        objects.put(source.className(), source);
-        packageCache.put(packageName, objects);
+        imports.put(source.className(), source);
     }
 
+    /* Execution packages are per thread, as every thread executes its own Smalltalk code. */
     public void pushExecutionPackage(String packageName) {
-        executionPackageNames.push(packageName);
+        executionPackageNames.get().push(packageName);
     }
 
     public void popExecutionPackage() {
-        executionPackageNames.pop();
+        executionPackageNames.get().pop();
     }
 
     public String peekExecutionPackage() {
-        return executionPackageNames.peek();
+        return executionPackageNames.get().peek();
+    }
+
+    // Definition of object by instantiating its class, in progress in thread.
+    private static class ObjectDefinition {
+
+        private final Thread thread = Thread.currentThread();
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        void finished() {
+            finished.countDown();
+        }
+
+        boolean isFinished() {
+            return finished.getCount() == 0;
+        }
+
+        void await() throws InterruptedException {
+            finished.await();
+        }
+    }
+
+    private static class SymbolReference extends WeakReference<PrimObject> {
+
+        private final String symbol;
+
+        SymbolReference(String symbol, PrimObject symbolObject, ReferenceQueue<PrimObject> queue) {
+            super(symbolObject, queue);
+            this.symbol = symbol;
+        }
     }
 }
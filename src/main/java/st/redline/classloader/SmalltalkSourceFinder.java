@@ -3,7 +3,6 @@ package st.redline.classloader;
 
 import java.io.*;
 import java.util.*;
-import java.util.jar.*;
 
 import static st.redline.classloader.SmalltalkSourceFile.*;
 
@@ -62,29 +61,11 @@ public class SmalltalkSourceFinder implements SourceFinder {
 
     private List<Source> findSourceInInJar(String packagePath, String classPath) {
         List<Source> sources = new ArrayList<>();
-        JarFile jarFile = tryCreateJarFile(classPath);
-        for (Enumeration em1 = jarFile.entries(); em1.hasMoreElements();) {
-            String entry = em1.nextElement().toString();
-            int lastSlash = entry.lastIndexOf('/');
-            int pathLength = packagePath.length();
-            if (entry.startsWith(packagePath) && pathLength == lastSlash && entry.endsWith(".st"))
-                sources.add(sourceFactory.createFromJar(entry, classPath));
-        }
+        for (String entry : sourceFactory.jars().sourceEntries(classPath, packagePath))
+            sources.add(sourceFactory.createFromJar(entry, classPath));
         return sources;
     }
 
-    private JarFile tryCreateJarFile(String classPath) {
-        try {
-            return createJarFile(classPath);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public JarFile createJarFile(String classPath) throws IOException {
-        return new JarFile(classPath);
-    }
-
     private boolean isJar(String classPath) {
         return classPath.endsWith(".jar") || classPath.endsWith(".JAR");
     }
@@ -1,6 +1,9 @@
 /* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
 package st.redline.classloader;
 
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+
 public interface Source {
 
     boolean hasContent();
@@ -11,4 +14,9 @@ public interface Source {
     String fileExtension();
     String packageName();
     String classpath();
+
+    /* Contents as the lexer reads them. Sources read from files and jars decode them straight from the channel. */
+    default CharStream stream() {
+        return CharStreams.fromString(contents(), fullClassName());
+    }
 }
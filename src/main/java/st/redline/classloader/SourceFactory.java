@@ -8,6 +8,20 @@ import static st.redline.classloader.SmalltalkSourceFile.SOURCE_EXTENSION;
 
 public class SourceFactory {
 
+    private final JarRegistry jars;
+
+    public SourceFactory() {
+        this(JarRegistry.shared());
+    }
+
+    public SourceFactory(JarRegistry jars) {
+        this.jars = jars;
+    }
+
+    JarRegistry jars() {
+        return jars;
+    }
+
     public Source createFromFile(String sourceName, File file, String classpath) {
         SourceReader sourceReader = fileSourceReader(file);
         return new SmalltalkSourceFile(nameWithoutExtension(file.getName()), sourceName, file, classpath, sourceReader);
@@ -38,6 +52,6 @@ public class SourceFactory {
     }
 
     private SourceReader jarSourceReader(String entryName, String jarPath) {
-        return new JarSourceReader(entryName, jarPath);
+        return new JarSourceReader(entryName, jarPath, jars);
     }
 }
@@ -1,7 +1,23 @@
 /* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
 package st.redline.classloader;
 
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
 public interface SourceReader {
 
-    String contents(LineTransformer lineTransformer);
+    int BUFFER_SIZE = 8192;
+
+    CharStream stream(String sourceName);
+
+    /* Source is decoded from the channel straight into code points the lexer reads, size of source (when known)
+       sizes the code point buffer so it is not grown as source is read. */
+    static CharStream stream(ReadableByteChannel channel, long size, String sourceName) throws IOException {
+        return CharStreams.fromChannel(channel, StandardCharsets.UTF_8, BUFFER_SIZE, CodingErrorAction.REPLACE, sourceName, Math.max(size, 0));
+    }
 }
@@ -16,6 +16,7 @@ public class ClassGenerator {
     private final SmalltalkGeneratingVisitor visitor;
     private Stack<SmalltalkVisitor<Void>> visitors;
     private byte[] classBytes = null;
+    private int literalNumber = 0;
 
     public ClassGenerator(ParseTree tree, Source source) {
         this.tree = tree;
@@ -64,6 +65,11 @@ public class ClassGenerator {
         return source.packageName();
     }
 
+    /* Answer number of next method generated for literal, unique in the class. */
+    public int nextLiteralNumber() {
+        return ++literalNumber;
+    }
+
     public void setClassBytes(byte[] bytes) {
         this.classBytes = bytes;
     }
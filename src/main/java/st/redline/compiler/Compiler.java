@@ -2,6 +2,8 @@
 package st.redline.compiler;
 
 import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -33,7 +35,7 @@ public class Compiler {
     }
 
     public ParseTree parsedSourceContents() {
-        return parse(sourceContents());
+        return parse(source.stream());
     }
 
     private byte[] generateClass(ParseTree tree) {
@@ -44,28 +46,54 @@ public class Compiler {
         return new ClassGenerator(tree, source);
     }
 
-    private ParseTree parse(String input) {
-        final CharStream inputStream = CharStreams.fromString(input, source.fullClassName());
+    /* Parse with SLL prediction first, which is fast and parses most sources. SLL reports syntax error for some
+       valid input, so source it fails to parse is parsed again with full LL, reporting the real error if any.
+       Prediction DFA is static in SmalltalkParser, so parsers share it and it is warm after first sources.
+     */
+    private ParseTree parse(CharStream inputStream) {
+        final long start = System.nanoTime();
 
         SmalltalkLexer lexer = new SmalltalkLexer(inputStream);
         lexer.removeErrorListeners();
         lexer.addErrorListener(new SmalltalkParserErrorListener());
 
-        SmalltalkParser parser = new SmalltalkParser(new CommonTokenStream(lexer));
+        final CommonTokenStream tokens = new CommonTokenStream(new MethodDefinitionTokenSource(lexer, source.className()));
+        SmalltalkParser parser = new SmalltalkParser(tokens);
         parser.removeErrorListeners();
-        parser.addErrorListener(new SmalltalkParserErrorListener(false));
-
-        final SmalltalkParser.ScriptContext script = parser.script();
-        //dumpTree(parser, script);
-
-        return script;
+        parser.setErrorHandler(new BailErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+
+        boolean llFallback = false;
+        try {
+            try {
+                return parser.script();
+            } catch (ParseCancellationException e) {
+                logSllFailure(e);
+                llFallback = true;
+                tokens.seek(0);
+                parser.reset();
+                parser.addErrorListener(new SmalltalkParserErrorListener(false));
+                parser.setErrorHandler(new DefaultErrorStrategy());
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                return parser.script();
+            }
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            ParseStatistics.record(tokens.size(), nanos, llFallback);
+            log.trace("Parsed {} with {}: {} tokens in {}us ({} tokens/s)", source.fullClassName(), llFallback ? "LL" : "SLL",
+                    tokens.size(), nanos / 1000, ParseStatistics.tokensPerSecond(tokens.size(), nanos));
+        }
     }
 
-    private String sourceContents() {
-        String src = source.contents();
-        // dump pre-processed source
-        //log.info(src);
-        return src;
+    private void logSllFailure(ParseCancellationException e) {
+        if (!log.isDebugEnabled())
+            return;
+        final Token token = e.getCause() instanceof RecognitionException ? ((RecognitionException) e.getCause()).getOffendingToken() : null;
+        if (token != null)
+            log.debug("SLL can't parse {} at line {}:{} '{}', parsing with LL", source.fullClassName(), token.getLine(),
+                    token.getCharPositionInLine(), token.getText());
+        else
+            log.debug("SLL can't parse {}, parsing with LL", source.fullClassName());
     }
 
     private boolean haveSource() {
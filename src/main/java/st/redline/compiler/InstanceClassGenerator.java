@@ -0,0 +1,129 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.compiler;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/* Generates JVM class for instances of Smalltalk class. Class extends instance class of Smalltalk superclass
+ * (or PrimObject) and declares public field for every instance variable declared by Smalltalk class.
+ * Fields are initialized with nil. Methods slotAt: and slotAtPut: are overridden so instance variables
+ * accessed by slot index end up in fields too.
+ * <code>
+   public class Point$Instance extends PrimObject {
+       public PrimObject x;
+       public PrimObject y;
+       ...
+   }
+   </code>
+ */
+public class InstanceClassGenerator implements Opcodes {
+
+    private static final String PRIM_OBJECT = "st/redline/core/PrimObject";
+    private static final String PRIM_OBJECT_TYPE = "L" + PRIM_OBJECT + ";";
+    private static final Handle CONSTANT_BOOTSTRAP = new Handle(H_INVOKESTATIC, "st/redline/core/LiteralSite", "bootstrapConstant",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false);
+
+    private final String className;
+    private final String superclassName;
+    private final String[] fieldNames;
+    private final int firstSlotIndex;
+
+    /* className and superclassName are internal JVM names (package/Name).
+       firstSlotIndex is slot index of the first field, i.e. number of inherited instance variables.
+    */
+    public InstanceClassGenerator(String className, String superclassName, String[] fieldNames, int firstSlotIndex) {
+        this.className = className;
+        this.superclassName = superclassName != null ? superclassName : PRIM_OBJECT;
+        this.fieldNames = fieldNames;
+        this.firstSlotIndex = firstSlotIndex;
+    }
+
+    public byte[] generate() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC + ACC_SUPER, className, null, superclassName, null);
+        for (String fieldName : fieldNames)
+            cw.visitField(ACC_PUBLIC, fieldName, PRIM_OBJECT_TYPE, null, null).visitEnd();
+        generateConstructor(cw);
+        if (fieldNames.length > 0) {
+            generateSlotAt(cw);
+            generateSlotAtPut(cw);
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private void generateConstructor(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, superclassName, "<init>", "()V", false);
+        if (fieldNames.length > 0) {
+            mv.visitInvokeDynamicInsn("nil", "()" + PRIM_OBJECT_TYPE, CONSTANT_BOOTSTRAP);
+            mv.visitVarInsn(ASTORE, 1);
+            for (String fieldName : fieldNames) {
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitFieldInsn(PUTFIELD, className, fieldName, PRIM_OBJECT_TYPE);
+            }
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private void generateSlotAt(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "slotAt", "(I)" + PRIM_OBJECT_TYPE, null, null);
+        mv.visitCode();
+        Label[] labels = labels();
+        Label inherited = new Label();
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitTableSwitchInsn(firstSlotIndex, firstSlotIndex + fieldNames.length - 1, inherited, labels);
+        for (int i = 0; i < fieldNames.length; i++) {
+            mv.visitLabel(labels[i]);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, className, fieldNames[i], PRIM_OBJECT_TYPE);
+            mv.visitInsn(ARETURN);
+        }
+        mv.visitLabel(inherited);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitMethodInsn(INVOKESPECIAL, superclassName, "slotAt", "(I)" + PRIM_OBJECT_TYPE, false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private void generateSlotAtPut(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "slotAtPut", "(I" + PRIM_OBJECT_TYPE + ")V", null, null);
+        mv.visitCode();
+        Label[] labels = labels();
+        Label inherited = new Label();
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitTableSwitchInsn(firstSlotIndex, firstSlotIndex + fieldNames.length - 1, inherited, labels);
+        for (int i = 0; i < fieldNames.length; i++) {
+            mv.visitLabel(labels[i]);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitFieldInsn(PUTFIELD, className, fieldNames[i], PRIM_OBJECT_TYPE);
+            mv.visitInsn(RETURN);
+        }
+        mv.visitLabel(inherited);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitMethodInsn(INVOKESPECIAL, superclassName, "slotAtPut", "(I" + PRIM_OBJECT_TYPE + ")V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private Label[] labels() {
+        Label[] labels = new Label[fieldNames.length];
+        for (int i = 0; i < labels.length; i++)
+            labels[i] = new Label();
+        return labels;
+    }
+}
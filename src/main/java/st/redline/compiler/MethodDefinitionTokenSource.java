@@ -0,0 +1,197 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.compiler;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static st.redline.compiler.generated.SmalltalkLexer.*;
+
+/* Rewrites method definitions of sources written as '- selector' (and '+ selector' for class methods) into the
+ * messages which add them to the class, so that:
+ *
+ *     - at: index put: anObject
+ *
+ * is parsed as:
+ *
+ *     ]. Array basicAddSelector: #at:put: withMethod: [ :index :anObject |
+ *
+ * with '].' ending the last method at the end of source. Sources in chunk format ('!Array methodsFor: ...!') are
+ * left as they are from their first method group on, as there '+ aNumber' is the header of a binary method.
+ * Tokens made for the header are on the line of the header, so line numbers of methods are those of the source.
+ */
+public class MethodDefinitionTokenSource implements TokenSource {
+
+    private static final String CLASS_SELECTOR = "class";
+    private static final String METHOD_AT_SELECTOR = "basicAddSelector:";
+    private static final String METHOD_PUT_SELECTOR = "withMethod:";
+    private static final String METHOD_GROUP_SELECTOR = "methodsFor:";
+    private static final String UNKNOWN_SELECTOR = "UnknownSelector";
+
+    private final TokenSource tokenSource;
+    private final String className;
+    private final Pair<TokenSource, CharStream> source;
+    private final Deque<Token> pending = new ArrayDeque<>();
+    private Token lookahead;
+    private boolean methods;
+    private boolean methodGroups;
+
+    public MethodDefinitionTokenSource(TokenSource tokenSource, String className) {
+        this.tokenSource = tokenSource;
+        this.className = className;
+        this.source = new Pair<>(this, tokenSource.getInputStream());
+    }
+
+    public Token nextToken() {
+        if (!pending.isEmpty())
+            return endOfMethods(pending.poll());
+        final Token token = next();
+        if (methodGroups || token.getCharPositionInLine() != 0 || token.getType() == Token.EOF)
+            return endOfMethods(token);
+        if (token.getType() == EXCLAMATION)
+            return methodGroup(token);
+        if (isMethodDefinition(token))
+            return methodDefinition(token);
+        return token;
+    }
+
+    private Token endOfMethods(Token token) {
+        if (token.getType() != Token.EOF || !methods)
+            return token;
+        methods = false;
+        pending.add(token(PERIOD, ".", token));
+        pending.add(token);
+        return token(BLOCK_END, "]", token);
+    }
+
+    private Token methodGroup(Token token) {
+        final List<Token> line = restOfLine();
+        for (Token each : line)
+            if (each.getType() == KEYWORD && METHOD_GROUP_SELECTOR.equals(each.getText()))
+                methodGroups = true;
+        pending.addAll(line);
+        return token;
+    }
+
+    // Token read ahead of the sign of a line which is not a method definition is read next, as any other token.
+    private Token next() {
+        final Token token = lookahead != null ? lookahead : tokenSource.nextToken();
+        lookahead = null;
+        return token;
+    }
+
+    // Definition starts the line with '- ' or '+ ' and has the rest of the line for its header.
+    private boolean isMethodDefinition(Token token) {
+        if (token.getType() != MINUS && !(token.getType() == BINARY_SELECTOR_CHAR && "+".equals(token.getText())))
+            return false;
+        lookahead = tokenSource.nextToken();
+        return lookahead.getType() == SEP && " ".equals(lookahead.getText());
+    }
+
+    private Token methodDefinition(Token sign) {
+        final List<Token> line = new ArrayList<>();
+        line.add(next());
+        line.addAll(restOfLine());
+        final List<Token> header = new ArrayList<>();
+        for (Token each : line)
+            if (each.getChannel() == Token.DEFAULT_CHANNEL && each.getType() != Token.EOF)
+                header.add(each);
+
+        final List<Token> arguments = new ArrayList<>();
+        final Token selector = selector(header, arguments, sign);
+        if (methods) {
+            pending.add(token(BLOCK_END, "]", sign));
+            pending.add(token(PERIOD, ".", sign));
+        }
+        pending.add(token(IDENTIFIER, className, sign));
+        if ("+".equals(sign.getText()))
+            pending.add(token(IDENTIFIER, CLASS_SELECTOR, sign));
+        pending.add(token(KEYWORD, METHOD_AT_SELECTOR, sign));
+        pending.add(token(HASH, "#", sign));
+        pending.add(selector);
+        pending.add(token(KEYWORD, METHOD_PUT_SELECTOR, sign));
+        pending.add(token(BLOCK_START, "[", sign));
+        for (Token argument : arguments)
+            pending.add(token(BLOCK_PARAM, ":" + argument.getText(), argument));
+        if (!arguments.isEmpty())
+            pending.add(token(PIPE, "|", sign));
+        for (Token each : line)
+            if (each.getChannel() != Token.DEFAULT_CHANNEL || each.getType() == Token.EOF || header.contains(each))
+                pending.add(each);
+        methods = true;
+        return pending.poll();
+    }
+
+    /* Selector of the header as the token of its symbol. Tokens of the header are removed from it as they are
+       read, leaving what follows the header on its line. */
+    private Token selector(List<Token> header, List<Token> arguments, Token sign) {
+        if (header.size() >= 2 && header.get(0).getType() == KEYWORD && header.get(1).getType() == IDENTIFIER) {
+            final StringBuilder keywords = new StringBuilder();
+            while (header.size() >= 2 && header.get(0).getType() == KEYWORD && header.get(1).getType() == IDENTIFIER) {
+                keywords.append(header.remove(0).getText());
+                arguments.add(header.remove(0));
+            }
+            return token(arguments.size() == 1 ? KEYWORD : KEYWORDS, keywords.toString(), sign);
+        }
+        if (!header.isEmpty() && header.get(0).getType() == IDENTIFIER)
+            return token(IDENTIFIER, header.remove(0).getText(), sign);
+        if (header.size() >= 2 && isBinarySelector(header.get(0)) && header.get(1).getType() == IDENTIFIER) {
+            final Token selector = header.remove(0);
+            arguments.add(header.remove(0));
+            return token(selector.getType(), selector.getText(), sign);
+        }
+        return token(IDENTIFIER, UNKNOWN_SELECTOR, sign);
+    }
+
+    private boolean isBinarySelector(Token token) {
+        final int type = token.getType();
+        return type == BINARY_SELECTOR_CHAR || type == BINARY_SELECTOR || type == MINUS || type == PIPE;
+    }
+
+    // Tokens up to and including the end of line (or source).
+    private List<Token> restOfLine() {
+        final List<Token> line = new ArrayList<>();
+        Token token;
+        do {
+            token = next();
+            line.add(token);
+        } while (token.getType() != EOL && token.getType() != Token.EOF);
+        return line;
+    }
+
+    private Token token(int type, String text, Token at) {
+        final CommonToken token = new CommonToken(source, type, Token.DEFAULT_CHANNEL, at.getStartIndex(), at.getStopIndex());
+        token.setText(text);
+        token.setLine(at.getLine());
+        token.setCharPositionInLine(at.getCharPositionInLine());
+        return token;
+    }
+
+    public int getLine() {
+        return tokenSource.getLine();
+    }
+
+    public int getCharPositionInLine() {
+        return tokenSource.getCharPositionInLine();
+    }
+
+    public CharStream getInputStream() {
+        return tokenSource.getInputStream();
+    }
+
+    public String getSourceName() {
+        return tokenSource.getSourceName();
+    }
+
+    public void setTokenFactory(TokenFactory<?> factory) {
+        tokenSource.setTokenFactory(factory);
+    }
+
+    public TokenFactory<?> getTokenFactory() {
+        return tokenSource.getTokenFactory();
+    }
+}
@@ -0,0 +1,54 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.compiler;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Totals of sources parsed by Compiler in this JVM. Sources which SLL prediction can't parse are parsed again with
+ * full LL, their count (and the positions Compiler logs at debug level) tell where the grammar is ambiguous.
+ */
+public final class ParseStatistics {
+
+    private static final AtomicLong sources = new AtomicLong();
+    private static final AtomicLong tokens = new AtomicLong();
+    private static final AtomicLong nanos = new AtomicLong();
+    private static final AtomicLong llFallbacks = new AtomicLong();
+
+    private ParseStatistics() {
+    }
+
+    static void record(int sourceTokens, long sourceNanos, boolean llFallback) {
+        sources.incrementAndGet();
+        tokens.addAndGet(sourceTokens);
+        nanos.addAndGet(sourceNanos);
+        if (llFallback)
+            llFallbacks.incrementAndGet();
+    }
+
+    public static long sources() {
+        return sources.get();
+    }
+
+    public static long tokens() {
+        return tokens.get();
+    }
+
+    public static long nanos() {
+        return nanos.get();
+    }
+
+    public static long llFallbacks() {
+        return llFallbacks.get();
+    }
+
+    static long tokensPerSecond(long tokens, long nanos) {
+        return nanos > 0 ? tokens * 1_000_000_000L / nanos : 0;
+    }
+
+    public static String summary() {
+        final long sources = sources();
+        final long tokens = tokens();
+        final long nanos = nanos();
+        return "parsed " + sources + " sources, " + tokens + " tokens in " + nanos / 1_000_000 + "ms ("
+                + tokensPerSecond(tokens, nanos) + " tokens/s), " + llFallbacks() + " parsed again with LL";
+    }
+}
@@ -19,7 +19,7 @@ public class BlockGeneratorVisitor extends ClassGeneratorVisitor {
     private static final Logger log = LogManager.getLogger(BlockGeneratorVisitor.class);
 
     protected String blockName;
-    private boolean returnRequired;
+    private boolean homeMethod;
 
     public BlockGeneratorVisitor(ClassGenerator classGenerator, ClassWriter cw, String blockName, int blockNumber,
                                  HashMap<String, ExtendedTerminalNode> homeTemporaries,
@@ -27,7 +27,7 @@ public class BlockGeneratorVisitor extends ClassGeneratorVisitor {
                                  HashMap<String, ExtendedTerminalNode> outerArguments) {
         super(classGenerator, cw);
         this.blockName = blockName;
-        this.returnRequired = false;
+        this.homeMethod = false;
         this.blockNumber = blockNumber;
         this.homeTemporaries = homeTemporaries;
         this.homeArguments = homeArguments;
@@ -42,14 +42,21 @@ public class BlockGeneratorVisitor extends ClassGeneratorVisitor {
         if (blockParamList != null)
             blockParamList.accept(currentVisitor());
         SmalltalkParser.SequenceContext blockSequence = ctx.sequence();
+        if (homeMethod)
+            openBlockAnswerHandler(blockSequence);
         if (blockSequence != null)
             blockSequence.accept(currentVisitor());
-        returnRequired = returnRequired(blockSequence);
-        closeBlockLambdaMethod(returnRequired);
+        closeBlockLambdaMethod(returnRequired(blockSequence));
     }
 
-    public boolean isAnswerBlock() {
-        return !returnRequired;
+    /* Generate java lambda body of block which is used as method (see visitBlock()), so it is home of its blocks. */
+    public void handleMethodBlock(SmalltalkParser.BlockContext ctx) {
+        homeMethod = true;
+        handleBlock(ctx);
+    }
+
+    protected boolean isHomeMethod() {
+        return homeMethod;
     }
 
     protected boolean returnRequired(SmalltalkParser.SequenceContext blockSequence) {
@@ -69,6 +76,22 @@ public class BlockGeneratorVisitor extends ClassGeneratorVisitor {
         return true;
     }
 
+    /* Generate code answering from home method of the block:
+     * <code>
+       throw PrimBlockAnswer.of(answer, context);
+       </code>
+     */
+    @Override
+    protected void returnAnswer() {
+        if (isHomeMethod()) {
+            super.returnAnswer();
+            return;
+        }
+        pushContext(mv);
+        mv.visitMethodInsn(INVOKESTATIC, PRIM_BLOCK_ANSWER_CLASS, "of", "(Lst/redline/core/PrimObject;Lst/redline/core/PrimContext;)Lst/redline/core/PrimBlockAnswer;", false);
+        mv.visitInsn(ATHROW);
+    }
+
     @Override
     public Void visitBlockParamList(SmalltalkParser.BlockParamListContext ctx) {
         log.trace("  visitBlockParamList");
@@ -92,6 +115,7 @@ public class BlockGeneratorVisitor extends ClassGeneratorVisitor {
         log.trace(" closeBlockLambdaMethod: {} {}", blockName, returnRequired);
         if (returnRequired)
             mv.visitInsn(ARETURN);
+        closeBlockAnswerHandler();
         mv.visitMaxs(0, 0);
         mv.visitEnd();
     }
@@ -1,6 +1,7 @@
 package st.redline.compiler.visitor;
 
 import org.antlr.v4.runtime.misc.NotNull;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.TerminalNode;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
@@ -8,7 +9,6 @@ import org.objectweb.asm.MethodVisitor;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import st.redline.utils.OrderedMap;
-import st.redline.classloader.SmalltalkClassLoader;
 import st.redline.compiler.ClassGenerator;
 import st.redline.compiler.SmalltalkCompilationError;
 import st.redline.compiler.generated.SmalltalkParser;
@@ -35,9 +35,10 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
     protected int blockNumber = 0; //TODO: Move this field to ClassGenerator
     private boolean referencedJVM = false;
     private boolean sendToSuper = false;
-    private List<SmalltalkGeneratingVisitor.BlockAnswerRecord> tryCatchRecords;
-    private Label tryStartLabel;
-    private Label tryEndLabel;
+    private Label blockAnswerEndLabel;
+    private Label blockAnswerHandlerLabel;
+    private HashMap<String, Integer> inlinedArguments = new HashMap<>();
+    private int nextLocal = 3; // Locals 0-2 hold arguments of generated method (see LAMBDA_BLOCK_SIG).
 
     public ClassGeneratorVisitor(ClassGenerator classGenerator) {
         this(classGenerator, new ClassWriter(ClassWriter.COMPUTE_FRAMES));
@@ -60,7 +61,9 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         openJavaClass();
         createPackageNameMethod();
         createImportForMethod();
+        createMethodLookupMethod();
         openSendMessagesMethod();
+        openBlockAnswerHandler(ctx.rootSequence());
         ctx.rootSequence().accept(currentVisitor());
         closeSendMessagesMethod();
         closeJavaClass();
@@ -69,6 +72,7 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
 
     private void closeSendMessagesMethod() {
         mv.visitInsn(ARETURN);
+        closeBlockAnswerHandler();
         mv.visitMaxs(0, 0);
         mv.visitEnd();
     }
@@ -105,6 +109,22 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         mv.visitEnd();
     }
 
+    /* Generate method giving access to private lambda methods of the class, used to restore methods from image
+     snapshot without executing the class (see ImageSnapshot):
+     <code>
+     public static MethodHandles.Lookup methodLookup() {
+        return MethodHandles.lookup();
+     }
+     </code> */
+    private void createMethodLookupMethod() {
+        mv = cw.visitMethod(ACC_PUBLIC + ACC_STATIC + ACC_SYNTHETIC, "methodLookup", "()Ljava/lang/invoke/MethodHandles$Lookup;", null, null);
+        mv.visitCode();
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;", false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(1, 0);
+        mv.visitEnd();
+    }
+
     private void openSendMessagesMethod() {
         mv = cw.visitMethod(ACC_PROTECTED, "sendMessages", SEND_MESSAGES_SIG, null, null);
         mv.visitCode();
@@ -190,12 +210,6 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         mv.visitEnd();
     }
 
-    @Override
-    public Void visitWs(SmalltalkParser.WsContext ctx) {
-        //Ignore 'ws' tree nodes
-        return null;
-    }
-
     @Override
     public Void visitRootSequence(SmalltalkParser.RootSequenceContext ctx) {
         log.trace("visitRootSequence");
@@ -367,7 +381,7 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         visitLine(mv, answer.CARROT().getSymbol().getLine());
         SmalltalkParser.ExpressionContext expression = answer.expression();
         expression.accept(currentVisitor());
-        mv.visitInsn(ARETURN);
+        returnAnswer();
         return null;
     }
 
@@ -378,10 +392,74 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         visitLine(mv, carrot.getSymbol().getLine());
         SmalltalkParser.ExpressionContext expression = ctx.expression();
         expression.accept(currentVisitor());
-        mv.visitInsn(ARETURN);
+        returnAnswer();
         return null;
     }
 
+    /* Return answer on stack from generated method. Methods and scripts are home of their blocks, so they
+     * return it, while blocks answer from their home method by throwing PrimBlockAnswer (see BlockGeneratorVisitor).
+     */
+    protected void returnAnswer() {
+        mv.visitInsn(ARETURN);
+    }
+
+    /* Start exception handler catching answers from blocks (^ inside a block) when body creates such blocks:
+     * <code>
+       try {
+           <body statements>
+       } catch (PrimBlockAnswer blockAnswer) {
+           return blockAnswer.answerFor(context);
+       }
+       </code>
+       Handler is closed by closeBlockAnswerHandler() after the last return of generated method.
+     */
+    protected void openBlockAnswerHandler(ParseTree body) {
+        blockAnswerEndLabel = null;
+        blockAnswerHandlerLabel = null;
+        if (body == null || !answeredFromBlock(body, new HashSet<>()))
+            return;
+        Label startLabel = new Label();
+        blockAnswerEndLabel = new Label();
+        blockAnswerHandlerLabel = new Label();
+        mv.visitTryCatchBlock(startLabel, blockAnswerEndLabel, blockAnswerHandlerLabel, PRIM_BLOCK_ANSWER_CLASS);
+        mv.visitLabel(startLabel);
+    }
+
+    protected void closeBlockAnswerHandler() {
+        if (blockAnswerHandlerLabel == null)
+            return;
+        mv.visitLabel(blockAnswerEndLabel);
+        mv.visitLabel(blockAnswerHandlerLabel);
+        pushContext(mv);
+        mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_BLOCK_ANSWER_CLASS, "answerFor", "(Lst/redline/core/PrimContext;)Lst/redline/core/PrimObject;", false);
+        mv.visitInsn(ARETURN);
+        blockAnswerEndLabel = null;
+        blockAnswerHandlerLabel = null;
+    }
+
+    // Answer whether there is '^' inside a block which is created (not inlined, or created by the fallback of inlined message).
+    private boolean answeredFromBlock(ParseTree tree, Set<SmalltalkParser.BlockContext> inlined) {
+        if (tree instanceof TerminalNode)
+            return false;
+        if (tree instanceof SmalltalkParser.BlockContext && !inlined.contains(tree))
+            return containsAnswer(tree);
+        if (tree instanceof SmalltalkParser.KeywordSendContext)
+            inlined.addAll(blocksNeverCreated((SmalltalkParser.KeywordSendContext) tree, false));
+        for (int i = 0; i < tree.getChildCount(); i++)
+            if (answeredFromBlock(tree.getChild(i), inlined))
+                return true;
+        return false;
+    }
+
+    private boolean containsAnswer(ParseTree tree) {
+        if (tree instanceof SmalltalkParser.AnswerContext)
+            return true;
+        for (int i = 0; i < tree.getChildCount(); i++)
+            if (containsAnswer(tree.getChild(i)))
+                return true;
+        return false;
+    }
+
     @Override
     public Void visitExpression(@NotNull SmalltalkParser.ExpressionContext ctx) {
         log.trace("  visitExpression");
@@ -469,6 +547,11 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
     @Override
     public Void visitKeywordSend(@NotNull SmalltalkParser.KeywordSendContext ctx) {
         log.trace("  visitKeywordSend");
+        List<SmalltalkParser.BlockContext> inlinedBlocks = inlinedBlocks(ctx);
+        if (inlinedBlocks != null) {
+            visitInlinedKeywordSend(ctx, inlinedBlocks);
+            return null;
+        }
         ctx.binarySend().accept(currentVisitor());
         if (referencedJVM)
             classGen.pushCurrentVisitor(new JVMGeneratorVisitor(classGen, cw, mv));
@@ -503,7 +586,10 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         TerminalNode identifierNode = variable.IDENTIFIER();
         String identifier = identifierNode.getSymbol().getText();
         visitLine(mv, identifierNode.getSymbol().getLine());
-        if (isTemporary(identifier)) {
+        if (isInlinedArgument(identifier)) {
+            pushDuplicate(mv);
+            mv.visitVarInsn(ASTORE, inlinedArguments.get(identifier));
+        } else if (isTemporary(identifier)) {
             pushDuplicate(mv);
             storeTemporary(mv, indexOfTemporary(identifier));
         } else if (isHomeTemporary(identifier)) {
@@ -556,7 +642,7 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         if (operand != null)
             operand.accept(currentVisitor());
         visitLine(mv, binarySelector.start.getLine());
-        invokePerform(mv, binarySelector.getText(), 1, sendToSuper);
+        invokeBinaryPerform(mv, binarySelector.getText(), sendToSuper);
         sendToSuper = false;
         return null;
     }
@@ -565,10 +651,9 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
     public Void visitKeywordMessage(@NotNull SmalltalkParser.KeywordMessageContext ctx) {
         log.trace("  visitKeywordMessage");
         initializeKeyword();
-        initializeTryCatch();
         String keyword;
         final List<SmalltalkParser.KeywordPairContext> keywordPairs = ctx.keywordPair();
-        if (keywordPairs.size() < PERFORM_METHOD_SIGNATURES.length) {
+        if (keywordPairs.size() <= MAX_SEND_ARGUMENTS) {
             for (SmalltalkParser.KeywordPairContext keywordPair : keywordPairs)
                 keywordPair.accept(currentVisitor());
             keyword = removeKeyword();
@@ -597,41 +682,11 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
             keyword = keywordAcc.toString();
         }
         visitLine(mv, keywordPairs.get(0).KEYWORD().getSymbol().getLine());
-        setupTryBlock();
         invokePerform(mv, keyword, keywordPairs.size(), sendToSuper);
-        setupCatchBlock();
         sendToSuper = false;
         return null;
     }
 
-    private void initializeTryCatch() {
-        tryCatchRecords = new ArrayList<>();
-        tryStartLabel = new Label();
-        tryEndLabel = new Label();
-    }
-
-    private void setupTryBlock() {
-        if (tryCatchRecords.isEmpty())
-            return;
-        log.trace("  setupTryBlock");
-        for (SmalltalkGeneratingVisitor.BlockAnswerRecord record : tryCatchRecords)
-            mv.visitTryCatchBlock(tryStartLabel, tryEndLabel, record.handlerLabel, record.exceptionName);
-        mv.visitLabel(tryStartLabel);
-    }
-
-    private void setupCatchBlock() {
-        if (tryCatchRecords.isEmpty())
-            return;
-        log.trace("  setupCatchBlock");
-        for (SmalltalkGeneratingVisitor.BlockAnswerRecord record : tryCatchRecords) {
-            mv.visitJumpInsn(GOTO, tryEndLabel);
-            mv.visitLabel(record.handlerLabel);
-            mv.visitMethodInsn(INVOKEVIRTUAL, record.exceptionName, "answer", "()Lst/redline/core/PrimObject;", false);
-            mv.visitInsn(ARETURN);
-        }
-        mv.visitLabel(tryEndLabel);
-    }
-
     @Override
     public Void visitKeywordPair(@NotNull SmalltalkParser.KeywordPairContext ctx) {
         log.trace("  visitKeywordPair {}", ctx.KEYWORD().getSymbol().getText());
@@ -743,12 +798,20 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
 
     @Override
     public Void visitLiteralArray(SmalltalkParser.LiteralArrayContext ctx) {
-        LiteralArrayVisitor literalArrayVisitor = new LiteralArrayVisitor(classGen, cw, mv);
+        // Literal array is created by separate method, so call site can create it once.
+        String methodName = "L" + classGen.nextLiteralNumber();
+        MethodVisitor literalMV = cw.visitMethod(ACC_PRIVATE + ACC_STATIC + ACC_SYNTHETIC, methodName, LAMBDA_BLOCK_SIG, null, null);
+        literalMV.visitCode();
+        LiteralArrayVisitor literalArrayVisitor = new LiteralArrayVisitor(classGen, cw, literalMV);
 
         classGen.pushCurrentVisitor(literalArrayVisitor);
         ctx.literalArrayRest().accept(literalArrayVisitor);
         classGen.popCurrentVisitor();
 
+        literalMV.visitInsn(ARETURN);
+        literalMV.visitMaxs(0, 0);
+        literalMV.visitEnd();
+        pushLiteralArray(mv, fullClassName(), methodName, LAMBDA_BLOCK_SIG, ctx.start.getLine());
         return null;
     }
 
@@ -758,17 +821,17 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         TerminalNode constant = ctx.CHARACTER_CONSTANT();
         String value = constant.getSymbol().getText().substring(1, 2); //Get seconds char from '$.' literal.
                                                                        // '$!!' literal should be parsed as '$!'
-        pushNewObject(mv, "smalltalkCharacter", value, constant.getSymbol().getLine());
+        pushLiteralObject(mv, "character", value, constant.getSymbol().getLine());
         return null;
     }
 
     @Override
     public Void visitStInteger(@NotNull SmalltalkParser.StIntegerContext ctx) {
-        log.trace("  visitInteger {}{}", ctx.MINUS() != null  ? "-" : "", nodeFor(ctx.DIGIT()).getText());
+        log.trace("  visitInteger {}{}", ctx.MINUS() != null  ? "-" : "", ctx.DIGITS().getText());
         boolean minus = ctx.MINUS() != null;
-        SmalltalkGeneratingVisitor.BasicNode number = nodeFor(ctx.DIGIT());
+        TerminalNode number = ctx.DIGITS();
         String value = minus ? "-" + number.getText() : number.getText();
-        pushNewObject(mv, "smalltalkInteger", value, number.getLine());
+        pushLiteralObject(mv, "integer", value, number.getSymbol().getLine());
         return null;
     }
 
@@ -776,7 +839,7 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
     public Void visitStFloat(@NotNull SmalltalkParser.StFloatContext ctx) {
         log.trace("  visitFloat {}", ctx.getText());
         String value = ctx.getText();
-        pushNewObject(mv, "smalltalkFloat", value, ctx.getStart().getLine());
+        pushLiteralObject(mv, "float", value, ctx.getStart().getLine());
         return null;
     }
 
@@ -787,7 +850,7 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         final String hexStr = ctx.HEX().toString().substring(3); // Skip '16r' at the beginning of hex string
         final long longValue = Long.parseLong(hexStr, 16);
         String value = (minus ? "-" : "") + longValue;
-        pushNewObject(mv, "smalltalkInteger", value, ctx.HEX().getSymbol().getLine());
+        pushLiteralObject(mv, "integer", value, ctx.HEX().getSymbol().getLine());
         return null;
     }
 
@@ -797,7 +860,7 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         TerminalNode node = ctx.STRING();
         String value = node.getSymbol().getText();
         value = value.substring(1, value.length() - 1);
-        pushNewObject(mv, "smalltalkString", value, node.getSymbol().getLine());
+        pushLiteralObject(mv, "string", value, node.getSymbol().getLine());
         return null;
     }
 
@@ -808,7 +871,7 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         String symbol = node.getText();
         if (haveKeyword())
             addArgumentToKeyword(symbol);
-        pushNewObject(mv, "smalltalkSymbol", symbol, node.getLine());
+        pushSymbol(mv, symbol, node.getLine());
         return null;
     }
 
@@ -825,30 +888,21 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         final TerminalNode reservedWord = bareSymbolContext.RESERVED_WORD();
         if (reservedWord != null)
             return new BasicNode(reservedWord.getSymbol().getLine(), reservedWord.getText(), 0);
-        List<TerminalNode> keywords = bareSymbolContext.KEYWORD();
-        if (keywords != null && !keywords.isEmpty())
-            return nodeFor(keywords);
-        List<TerminalNode> pipe = bareSymbolContext.PIPE();
-        if (pipe != null && !pipe.isEmpty())
-            return nodeFor(pipe);
+        TerminalNode keywords = bareSymbolContext.KEYWORD() != null ? bareSymbolContext.KEYWORD() : bareSymbolContext.KEYWORDS();
+        if (keywords != null)
+            return new BasicNode(keywords.getSymbol().getLine(), keywords.getText(), 0);
         throw new RuntimeException("Node cannot be determined from context.");
     }
 
-    private SmalltalkGeneratingVisitor.BasicNode nodeFor(List<TerminalNode> nodes) {
-        int line = nodes.get(0).getSymbol().getLine();
-        StringBuilder text = new StringBuilder();
-        for (TerminalNode n : nodes)
-            text.append(n.getSymbol().getText());
-        return new SmalltalkGeneratingVisitor.BasicNode(line, text.toString(), 0);
-    }
-
     @Override
     public Void visitReference(@NotNull SmalltalkParser.ReferenceContext ctx) {
         log.trace("  visitReference {}", ctx.variable().IDENTIFIER().getSymbol().getText());
         TerminalNode identifier = ctx.variable().IDENTIFIER();
         String name = identifier.getSymbol().getText();
         visitLine(mv, identifier.getSymbol().getLine());
-        if (isTemporary(name))
+        if (isInlinedArgument(name))
+            mv.visitVarInsn(ALOAD, inlinedArguments.get(name));
+        else if (isTemporary(name))
             pushTemporary(mv, indexOfTemporary(name));
         else if (isArgument(name))
             pushArgument(mv, indexOfArgument(name));
@@ -882,51 +936,437 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         BlockGeneratorVisitor blockGeneratorVisitor = new BlockGeneratorVisitor(classGen, cw, blockName, blockNumber,
                 homeTemps, homeArgs, arguments);
         classGen.pushCurrentVisitor(blockGeneratorVisitor);
-        blockGeneratorVisitor.handleBlock(ctx);
+        if (methodBlock)
+            blockGeneratorVisitor.handleMethodBlock(ctx);
+        else
+            blockGeneratorVisitor.handleBlock(ctx);
         blockNumber = blockGeneratorVisitor.blockNumber;
         removeJVMGeneratorVisitor();
         classGen.popCurrentVisitor();
         int line = ctx.BLOCK_START().getSymbol().getLine();
         if (methodBlock)
             pushNewMethod(mv, fullClassName(), blockName, LAMBDA_BLOCK_SIG, line);
-        else {
-            String blockAnswerClassName = makeBlockAnswerClassName(blockName);
-            pushNewBlock(mv, fullClassName(), blockName, LAMBDA_BLOCK_SIG, line, blockGeneratorVisitor.isAnswerBlock(), blockAnswerClassName);
-            if (blockGeneratorVisitor.isAnswerBlock()) {
-                loadBlockAnswerClass(blockAnswerClassName);
-                tryCatchRecords.add(new SmalltalkGeneratingVisitor.BlockAnswerRecord(blockAnswerClassName));
-            }
-        }
+        else
+            pushNewBlock(mv, fullClassName(), blockName, LAMBDA_BLOCK_SIG, line);
         return null;
     }
 
-    private void loadBlockAnswerClass(String blockAnswerClassName) {
-        log.trace("  loadBlockAnswerClass: {}", blockAnswerClassName);
-        byte[] classBytes = createBlockAnswerClass(blockAnswerClassName);
-        SmalltalkClassLoader classLoader = classLoader();
-        classLoader.defineClass(classBytes);
+    /* Answer literal blocks of the message compiled in-line as JVM branches and loops, or null when message
+     * should be sent. Messages compiled in-line are ifTrue:, ifFalse:, ifTrue:ifFalse:, ifFalse:ifTrue:,
+     * and:, or:, whileTrue:, whileFalse:, to:do: and timesRepeat: with literal block arguments (and literal
+     * block receiver of whileTrue: and whileFalse:). Blocks with temporaries are not inlined.
+     */
+    private List<SmalltalkParser.BlockContext> inlinedBlocks(SmalltalkParser.KeywordSendContext ctx) {
+        final List<SmalltalkParser.KeywordPairContext> pairs = ctx.keywordMessage().keywordPair();
+        final List<SmalltalkParser.BlockContext> blocks = new ArrayList<>();
+        switch (keywordSelector(ctx.keywordMessage())) {
+            case "whileTrue:":
+            case "whileFalse:":
+                blocks.add(literalBlock(ctx.binarySend(), 0));
+                blocks.add(literalBlock(pairs.get(0).binarySend(), 0));
+                break;
+            case "ifTrue:":
+            case "ifFalse:":
+            case "and:":
+            case "or:":
+            case "timesRepeat:":
+                blocks.add(literalBlock(pairs.get(0).binarySend(), 0));
+                break;
+            case "ifTrue:ifFalse:":
+            case "ifFalse:ifTrue:":
+                blocks.add(literalBlock(pairs.get(0).binarySend(), 0));
+                blocks.add(literalBlock(pairs.get(1).binarySend(), 0));
+                break;
+            case "to:do:":
+                SmalltalkParser.BlockContext block = literalBlock(pairs.get(1).binarySend(), 1);
+                // Loop variable lives in JVM local, so it can't be captured by a real block.
+                if (block != null && !capturedByBlock(block.sequence(), blockParameter(block), new HashSet<>()))
+                    blocks.add(block);
+                else
+                    blocks.add(null);
+                break;
+            default:
+                return null;
+        }
+        return blocks.contains(null) ? null : blocks;
     }
 
-    private SmalltalkClassLoader classLoader() {
-        return (SmalltalkClassLoader) Thread.currentThread().getContextClassLoader();
+    /* Answer inlined blocks of the message which are never created as real blocks. Guards of inlined to:do:,
+     * timesRepeat: and conditionals fall back to sending the message with real blocks, guards of inlined loops send
+     * mustBeBoolean instead. With conditionals, blocks of conditionals are answered too - those referencing variables
+     * of inlined to:do: (the only ones which matter for them) send mustBeBoolean as well, see inlineConditional().
+     */
+    private List<SmalltalkParser.BlockContext> blocksNeverCreated(SmalltalkParser.KeywordSendContext ctx, boolean conditionals) {
+        final List<SmalltalkParser.BlockContext> blocks = inlinedBlocks(ctx);
+        if (blocks == null)
+            return Collections.emptyList();
+        switch (keywordSelector(ctx.keywordMessage())) {
+            case "whileTrue:":
+            case "whileFalse:":
+                return blocks;
+            case "to:do:":
+            case "timesRepeat:":
+                return Collections.emptyList();
+            default:
+                return conditionals ? blocks : Collections.emptyList();
+        }
     }
 
-    private byte[] createBlockAnswerClass(String blockAnswerClassName) {
-        String className = blockAnswerClassName.replaceAll("\\.", "/");
-        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
-        MethodVisitor mv;
-        cw.visit(BYTECODE_VERSION, ACC_PUBLIC + ACC_SUPER, className, null, "st/redline/core/PrimBlockAnswer", null);
-        cw.visitSource(className() + sourceFileExtension(), null);
-        mv = cw.visitMethod(ACC_PUBLIC, "<init>", "(Lst/redline/core/PrimObject;)V", null, null);
-        mv.visitCode();
-        mv.visitVarInsn(ALOAD, 0); //this
-        mv.visitVarInsn(ALOAD, 1); //first argument
-        mv.visitMethodInsn(INVOKESPECIAL, "st/redline/core/PrimBlockAnswer", "<init>", "(Lst/redline/core/PrimObject;)V", false);
-        mv.visitInsn(RETURN);
-        mv.visitMaxs(2, 2);
-        mv.visitEnd();
-        cw.visitEnd();
-        return cw.toByteArray();
+    private String keywordSelector(SmalltalkParser.KeywordMessageContext ctx) {
+        StringBuilder selector = new StringBuilder();
+        for (SmalltalkParser.KeywordPairContext keywordPair : ctx.keywordPair())
+            selector.append(keywordPair.KEYWORD().getText());
+        return selector.toString();
+    }
+
+    // Answer the block when expression is a bare literal block suitable for inlining, otherwise null.
+    private SmalltalkParser.BlockContext literalBlock(SmalltalkParser.BinarySendContext ctx, int parameterCount) {
+        if (ctx.binaryTail() != null || ctx.unarySend().unaryTail() != null)
+            return null;
+        SmalltalkParser.LiteralContext literal = ctx.unarySend().operand().literal();
+        if (literal == null || literal.runtimeLiteral() == null || literal.runtimeLiteral().block() == null)
+            return null;
+        SmalltalkParser.BlockContext block = literal.runtimeLiteral().block();
+        int blockParameterCount = block.blockParamList() == null ? 0 : block.blockParamList().BLOCK_PARAM().size();
+        if (blockParameterCount != parameterCount || block.sequence().temps() != null)
+            return null;
+        return block;
+    }
+
+    private String blockParameter(SmalltalkParser.BlockContext block) {
+        return block.blockParamList().BLOCK_PARAM(0).getText().substring(1);
+    }
+
+    // Answer whether variable is referenced from a block which is created (see blocksNeverCreated()).
+    private boolean capturedByBlock(ParseTree tree, String variable, Set<SmalltalkParser.BlockContext> inlined) {
+        if (tree instanceof TerminalNode)
+            return false;
+        if (tree instanceof SmalltalkParser.BlockContext && !inlined.contains(tree))
+            return referencedIn(tree, variable);
+        if (tree instanceof SmalltalkParser.KeywordSendContext)
+            inlined.addAll(blocksNeverCreated((SmalltalkParser.KeywordSendContext) tree, true));
+        for (int i = 0; i < tree.getChildCount(); i++)
+            if (capturedByBlock(tree.getChild(i), variable, inlined))
+                return true;
+        return false;
+    }
+
+    private boolean referencedIn(ParseTree tree, String variable) {
+        if (tree instanceof TerminalNode)
+            return variable.equals(tree.getText());
+        for (int i = 0; i < tree.getChildCount(); i++)
+            if (referencedIn(tree.getChild(i), variable))
+                return true;
+        return false;
+    }
+
+    private boolean referencesInlinedArgument(List<SmalltalkParser.BlockContext> blocks) {
+        for (String variable : inlinedArguments.keySet())
+            for (SmalltalkParser.BlockContext block : blocks)
+                if (referencedIn(block, variable))
+                    return true;
+        return false;
+    }
+
+    private boolean isInlinedArgument(String key) {
+        return inlinedArguments.containsKey(key);
+    }
+
+    private int newLocal() {
+        return nextLocal++;
+    }
+
+    private void visitInlinedKeywordSend(SmalltalkParser.KeywordSendContext ctx, List<SmalltalkParser.BlockContext> blocks) {
+        final String selector = keywordSelector(ctx.keywordMessage());
+        final int line = ctx.keywordMessage().keywordPair(0).KEYWORD().getSymbol().getLine();
+        log.trace("  visitInlinedKeywordSend {}", selector);
+        initializeKeyword();
+        switch (selector) {
+            case "whileTrue:":
+                inlineWhile(blocks.get(0), blocks.get(1), true, line);
+                break;
+            case "whileFalse:":
+                inlineWhile(blocks.get(0), blocks.get(1), false, line);
+                break;
+            case "to:do:":
+                inlineToDo(ctx, blocks.get(0), line);
+                break;
+            case "timesRepeat:":
+                inlineTimesRepeat(ctx, blocks.get(0), line);
+                break;
+            default:
+                inlineConditional(ctx, selector, blocks, line);
+        }
+        removeKeyword();
+    }
+
+    /* Generate code for receiver ifTrue: [...] ifFalse: [...] and friends:
+     * <code>
+       if (receiver == true) <true block statements>
+       else if (receiver == false) <false block statements>
+       else invokedynamic perform(receiver, trueBlock, falseBlock) [selector]
+       </code>
+       Blocks referencing variables of enclosing inlined to:do: can't be created, as the variables live in JVM locals.
+       Receiver which is not boolean is then sent mustBeBoolean and its answer is tested instead.
+     */
+    private void inlineConditional(SmalltalkParser.KeywordSendContext ctx, String selector, List<SmalltalkParser.BlockContext> blocks, int line) {
+        final Runnable whenTrue;
+        final Runnable whenFalse;
+        switch (selector) {
+            case "ifTrue:":
+                whenTrue = () -> visitInlinedBlock(blocks.get(0));
+                whenFalse = () -> pushNil(mv);
+                break;
+            case "ifFalse:":
+                whenTrue = () -> pushNil(mv);
+                whenFalse = () -> visitInlinedBlock(blocks.get(0));
+                break;
+            case "ifTrue:ifFalse:":
+                whenTrue = () -> visitInlinedBlock(blocks.get(0));
+                whenFalse = () -> visitInlinedBlock(blocks.get(1));
+                break;
+            case "ifFalse:ifTrue:":
+                whenTrue = () -> visitInlinedBlock(blocks.get(1));
+                whenFalse = () -> visitInlinedBlock(blocks.get(0));
+                break;
+            case "and:":
+                whenTrue = () -> visitInlinedBlock(blocks.get(0));
+                whenFalse = () -> pushFalse(mv);
+                break;
+            case "or:":
+                whenTrue = () -> pushTrue(mv);
+                whenFalse = () -> visitInlinedBlock(blocks.get(0));
+                break;
+            default:
+                throw new IllegalStateException("Message " + selector + " can't be inlined.");
+        }
+        ctx.binarySend().accept(currentVisitor());
+        visitLine(mv, line);
+        Label trueLabel = new Label();
+        Label falseLabel = new Label();
+        Label doneLabel = new Label();
+        if (referencesInlinedArgument(blocks)) {
+            Label testLabel = new Label();
+            mv.visitLabel(testLabel);
+            jumpOnBoolean(trueLabel, falseLabel);
+            invokePerform(mv, "mustBeBoolean", 0, false);
+            mv.visitJumpInsn(GOTO, testLabel);
+        } else {
+            jumpOnBoolean(trueLabel, falseLabel);
+            sendNotInlined(selector, ctx.keywordMessage().keywordPair(), line);
+            mv.visitJumpInsn(GOTO, doneLabel);
+        }
+        mv.visitLabel(trueLabel);
+        whenTrue.run();
+        mv.visitJumpInsn(GOTO, doneLabel);
+        mv.visitLabel(falseLabel);
+        whenFalse.run();
+        mv.visitLabel(doneLabel);
+    }
+
+    /* Generate code for [condition] whileTrue: [body]:
+     * <code>
+       while ((value = <condition statements>) == true) // or == false for whileFalse:
+           <body statements>
+       nil
+       </code>
+       Value which is not boolean is sent mustBeBoolean and its answer is tested instead.
+     */
+    private void inlineWhile(SmalltalkParser.BlockContext condition, SmalltalkParser.BlockContext body, boolean whileTrue, int line) {
+        Label loopLabel = new Label();
+        Label testLabel = new Label();
+        Label bodyLabel = new Label();
+        Label exitLabel = new Label();
+        mv.visitLabel(loopLabel);
+        visitInlinedBlock(condition);
+        mv.visitLabel(testLabel);
+        visitLine(mv, line);
+        if (whileTrue)
+            jumpOnBoolean(bodyLabel, exitLabel);
+        else
+            jumpOnBoolean(exitLabel, bodyLabel);
+        invokePerform(mv, "mustBeBoolean", 0, false);
+        mv.visitJumpInsn(GOTO, testLabel);
+        mv.visitLabel(bodyLabel);
+        visitInlinedBlock(body);
+        pop(mv);
+        mv.visitJumpInsn(GOTO, loopLabel);
+        mv.visitLabel(exitLabel);
+        pushNil(mv);
+    }
+
+    /* Generate code for start to: stop do: [:i | body]:
+     * <code>
+       if (start and stop are SmallIntegers)
+           for (int counter = start; counter <= stop; counter++) {
+               i = PrimSmallInteger.valueOf(start.selfClass(), counter);
+               <body statements>
+           }
+       else
+           invokedynamic perform(start, stop, block) [to:do:]
+       start
+       </code>
+     */
+    private void inlineToDo(SmalltalkParser.KeywordSendContext ctx, SmalltalkParser.BlockContext block, int line) {
+        final int start = newLocal();
+        final int stop = newLocal();
+        final int counter = newLocal();
+        final int limit = newLocal();
+        final int variable = newLocal();
+        Label sendLabel = new Label();
+        Label bodyLabel = new Label();
+        Label exitLabel = new Label();
+        Label doneLabel = new Label();
+        ctx.binarySend().accept(currentVisitor());
+        mv.visitVarInsn(ASTORE, start);
+        ctx.keywordMessage().keywordPair(0).binarySend().accept(currentVisitor());
+        mv.visitVarInsn(ASTORE, stop);
+        visitLine(mv, line);
+        pushIntValue(start, sendLabel);
+        mv.visitVarInsn(ISTORE, counter);
+        pushIntValue(stop, sendLabel);
+        mv.visitVarInsn(ISTORE, limit);
+        mv.visitVarInsn(ILOAD, counter);
+        mv.visitVarInsn(ILOAD, limit);
+        mv.visitJumpInsn(IF_ICMPGT, exitLabel);
+        mv.visitLabel(bodyLabel);
+        mv.visitVarInsn(ALOAD, start);
+        mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, "selfClass", "()Lst/redline/core/PrimClass;", false);
+        mv.visitVarInsn(ILOAD, counter);
+        mv.visitMethodInsn(INVOKESTATIC, PRIM_SMALL_INTEGER_CLASS, "valueOf", "(Lst/redline/core/PrimClass;I)L" + PRIM_SMALL_INTEGER_CLASS + ";", false);
+        mv.visitVarInsn(ASTORE, variable);
+        final String name = blockParameter(block);
+        final Integer shadowed = inlinedArguments.put(name, variable);
+        visitInlinedBlock(block);
+        if (shadowed != null)
+            inlinedArguments.put(name, shadowed);
+        else
+            inlinedArguments.remove(name);
+        pop(mv);
+        mv.visitVarInsn(ILOAD, counter);
+        mv.visitVarInsn(ILOAD, limit);
+        mv.visitJumpInsn(IF_ICMPGE, exitLabel);
+        mv.visitIincInsn(counter, 1);
+        mv.visitJumpInsn(GOTO, bodyLabel);
+        mv.visitLabel(sendLabel);
+        mv.visitVarInsn(ALOAD, start);
+        mv.visitVarInsn(ALOAD, stop);
+        sendNotInlined("to:do:", ctx.keywordMessage().keywordPair().subList(1, 2), line);
+        mv.visitJumpInsn(GOTO, doneLabel);
+        mv.visitLabel(exitLabel);
+        mv.visitVarInsn(ALOAD, start);
+        mv.visitLabel(doneLabel);
+    }
+
+    /* Generate code for count timesRepeat: [body]:
+     * <code>
+       if (count is SmallInteger)
+           for (int i = count; i > 0; i--)
+               <body statements>
+       else
+           invokedynamic perform(count, block) [timesRepeat:]
+       count
+       </code>
+     */
+    private void inlineTimesRepeat(SmalltalkParser.KeywordSendContext ctx, SmalltalkParser.BlockContext block, int line) {
+        final int count = newLocal();
+        final int counter = newLocal();
+        Label sendLabel = new Label();
+        Label loopLabel = new Label();
+        Label exitLabel = new Label();
+        Label doneLabel = new Label();
+        ctx.binarySend().accept(currentVisitor());
+        mv.visitVarInsn(ASTORE, count);
+        visitLine(mv, line);
+        pushIntValue(count, sendLabel);
+        mv.visitVarInsn(ISTORE, counter);
+        mv.visitLabel(loopLabel);
+        mv.visitVarInsn(ILOAD, counter);
+        mv.visitJumpInsn(IFLE, exitLabel);
+        visitInlinedBlock(block);
+        pop(mv);
+        mv.visitIincInsn(counter, -1);
+        mv.visitJumpInsn(GOTO, loopLabel);
+        mv.visitLabel(sendLabel);
+        mv.visitVarInsn(ALOAD, count);
+        sendNotInlined("timesRepeat:", ctx.keywordMessage().keywordPair(), line);
+        mv.visitJumpInsn(GOTO, doneLabel);
+        mv.visitLabel(exitLabel);
+        mv.visitVarInsn(ALOAD, count);
+        mv.visitLabel(doneLabel);
+    }
+
+    // Value on stack is popped and jumps are taken when it is true or false. Other values stay on stack.
+    private void jumpOnBoolean(Label trueLabel, Label falseLabel) {
+        Label notTrueLabel = new Label();
+        Label notBooleanLabel = new Label();
+        Label popTrueLabel = new Label();
+        Label popFalseLabel = new Label();
+        pushDuplicate(mv);
+        pushTrue(mv);
+        mv.visitJumpInsn(IF_ACMPEQ, popTrueLabel);
+        pushDuplicate(mv);
+        pushFalse(mv);
+        mv.visitJumpInsn(IF_ACMPEQ, popFalseLabel);
+        mv.visitJumpInsn(GOTO, notBooleanLabel);
+        mv.visitLabel(popTrueLabel);
+        pop(mv);
+        mv.visitJumpInsn(GOTO, trueLabel);
+        mv.visitLabel(popFalseLabel);
+        pop(mv);
+        mv.visitJumpInsn(GOTO, falseLabel);
+        mv.visitLabel(notBooleanLabel);
+    }
+
+    // Push int value of SmallInteger in local variable, jump to notSmallIntegerLabel when it is not SmallInteger.
+    private void pushIntValue(int local, Label notSmallIntegerLabel) {
+        mv.visitVarInsn(ALOAD, local);
+        mv.visitTypeInsn(INSTANCEOF, PRIM_SMALL_INTEGER_CLASS);
+        mv.visitJumpInsn(IFEQ, notSmallIntegerLabel);
+        mv.visitVarInsn(ALOAD, local);
+        mv.visitTypeInsn(CHECKCAST, PRIM_SMALL_INTEGER_CLASS);
+        mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_SMALL_INTEGER_CLASS, "value", "()I", false);
+    }
+
+    // Send message which was not inlined because receiver has unexpected class. Receiver is on stack.
+    private void sendNotInlined(String selector, List<SmalltalkParser.KeywordPairContext> arguments, int line) {
+        initializeKeyword();
+        for (SmalltalkParser.KeywordPairContext argument : arguments)
+            argument.binarySend().accept(currentVisitor());
+        removeKeyword();
+        visitLine(mv, line);
+        invokePerform(mv, selector, countOf(selector, ':'), false);
+    }
+
+    /* Generate statements of inlined block leaving value of the last statement on stack. */
+    private void visitInlinedBlock(SmalltalkParser.BlockContext block) {
+        initializeKeyword();
+        SmalltalkParser.StatementsContext statements = block.sequence().statements();
+        if (statements == null) {
+            pushNil(mv);
+        } else if (statements instanceof SmalltalkParser.StatementAnswerContext) {
+            statements.accept(currentVisitor());
+        } else if (statements instanceof SmalltalkParser.StatementExpressionsAnswerContext) {
+            SmalltalkParser.StatementExpressionsAnswerContext expressionsAnswer = (SmalltalkParser.StatementExpressionsAnswerContext) statements;
+            visitInlinedExpressions(expressionsAnswer.expressions(), false);
+            expressionsAnswer.answer().accept(currentVisitor());
+        } else {
+            visitInlinedExpressions(((SmalltalkParser.StatementExpressionsContext) statements).expressions(), true);
+        }
+        removeKeyword();
+    }
+
+    private void visitInlinedExpressions(SmalltalkParser.ExpressionsContext ctx, boolean keepLastValue) {
+        List<SmalltalkParser.ExpressionContext> expressions = new ArrayList<>();
+        expressions.add(ctx.expression());
+        for (SmalltalkParser.ExpressionListContext expressionList : ctx.expressionList())
+            expressions.add(expressionList.expression());
+        for (int i = 0; i < expressions.size(); i++) {
+            expressions.get(i).accept(currentVisitor());
+            removeJVMGeneratorVisitor();
+            if (!keepLastValue || i < expressions.size() - 1)
+                pop(mv);
+        }
     }
 
     @Override
@@ -944,10 +1384,6 @@ public class ClassGeneratorVisitor extends SmalltalkGeneratingVisitor {
         throw new RuntimeException("visitVariable should have been handed before now.");
     }
 
-    private String makeBlockAnswerClassName(String blockName) {
-        return packageName() + '.' + className() + "$A" + blockName;
-    }
-
     private String makeBlockMethodName(SmalltalkGeneratingVisitor.KeywordRecord keywordRecord) {
         StringBuilder name = new StringBuilder();
         if (keywordRecord==null || keywordRecord.firstArgument.length() == 0) {
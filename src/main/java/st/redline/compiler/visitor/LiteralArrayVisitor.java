@@ -112,7 +112,7 @@ public class LiteralArrayVisitor extends ClassGeneratorVisitor {
         TerminalNode pseudoVariable = ctx.RESERVED_WORD();
         String name = pseudoVariable.getSymbol().getText();
         if ("self".equals(name))
-            pushNewObject(mv, "smalltalkSymbol", "#self", pseudoVariable.getSymbol().getLine());
+            pushSymbol(mv, "#self", pseudoVariable.getSymbol().getLine());
         else if ("nil".equals(name))
             pushNil(mv);
         else if ("true".equals(name))
@@ -120,7 +120,7 @@ public class LiteralArrayVisitor extends ClassGeneratorVisitor {
         else if ("false".equals(name))
             pushFalse(mv);
         else if ("super".equals(name))
-            pushNewObject(mv, "smalltalkSymbol", "#super", pseudoVariable.getSymbol().getLine());
+            pushSymbol(mv, "#super", pseudoVariable.getSymbol().getLine());
         else
             throw new RuntimeException("visitPseudoVariable unknown variable: " + name);
         return null;
@@ -130,7 +130,7 @@ public class LiteralArrayVisitor extends ClassGeneratorVisitor {
     public Void visitBareSymbol(SmalltalkParser.BareSymbolContext ctx) {
         log.trace("  visitBareSymbol {}", ctx.getText());
         final String symbolText = ctx.getText();
-        pushNewObject(mv, "smalltalkSymbol", symbolText, ctx.start.getLine());
+        pushSymbol(mv, symbolText, ctx.start.getLine());
         return null;
     }
 
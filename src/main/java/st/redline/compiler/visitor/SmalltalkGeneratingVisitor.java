@@ -26,21 +26,36 @@ public class SmalltalkGeneratingVisitor extends SmalltalkBaseVisitor<Void> imple
     public static final String PRIM_OBJECT_CLASS = PrimObject.class.getCanonicalName().replace('.', '/'); //"st/redline/core/PrimObject";
     public static final String PRIM_CONTEXT_CLASS = PrimContext.class.getCanonicalName().replace('.', '/'); //"st/redline/core/PrimContext";
 
-    protected static final String[] PERFORM_METHOD_SIGNATURES = {
-            "(Ljava/lang/String;)Lst/redline/core/PrimObject;",
-            "(Lst/redline/core/PrimObject;Ljava/lang/String;)Lst/redline/core/PrimObject;",
-            "(Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Ljava/lang/String;)Lst/redline/core/PrimObject;",
-            "(Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Ljava/lang/String;)Lst/redline/core/PrimObject;",
-            "(Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Ljava/lang/String;)Lst/redline/core/PrimObject;",
-            "(Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Ljava/lang/String;)Lst/redline/core/PrimObject;",
-            "(Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Ljava/lang/String;)Lst/redline/core/PrimObject;",
-            "(Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Ljava/lang/String;)Lst/redline/core/PrimObject;",
-            "(Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;Ljava/lang/String;)Lst/redline/core/PrimObject;"
-    };
-    protected static final String PERFORM_METHOD_ARRAY_SIGNATURE = "([Lst/redline/core/PrimObject;Ljava/lang/String;)Lst/redline/core/PrimObject;";
+    // Sends with more arguments pass them in an array (SEND_ARRAY_SIGNATURE).
+    protected static final int MAX_SEND_ARGUMENTS = 8;
+    protected static final String SEND_ARRAY_SIGNATURE = "(Lst/redline/core/PrimObject;[Lst/redline/core/PrimObject;)Lst/redline/core/PrimObject;";
+    protected static final Handle SEND_BOOTSTRAP = new Handle(H_INVOKESTATIC, "st/redline/core/SendSite", "bootstrap",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;)Ljava/lang/invoke/CallSite;", false);
+    protected static final Handle INST_VAR_BOOTSTRAP = new Handle(H_INVOKESTATIC, "st/redline/core/InstVarSite", "bootstrap",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;)Ljava/lang/invoke/CallSite;", false);
+    protected static final Handle LITERAL_BOOTSTRAP = new Handle(H_INVOKESTATIC, "st/redline/core/LiteralSite", "bootstrap",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/Object;)Ljava/lang/invoke/CallSite;", false);
+    protected static final Handle CONSTANT_BOOTSTRAP = new Handle(H_INVOKESTATIC, "st/redline/core/LiteralSite", "bootstrapConstant",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false);
+    protected static final Handle REFERENCE_BOOTSTRAP = new Handle(H_INVOKESTATIC, "st/redline/core/ReferenceSite", "bootstrap",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false);
+    protected static final String PRIM_SMALL_INTEGER_CLASS = "st/redline/core/PrimSmallInteger";
+    protected static final String PRIM_BLOCK_ANSWER_CLASS = "st/redline/core/PrimBlockAnswer";
+    protected static final Map<String, String> SMALL_INTEGER_INTRINSICS = new HashMap<>();
     protected static final Map<String, Integer> OPCODES = new HashMap<>();
     protected static final int BYTECODE_VERSION;
 
+    static {
+        SMALL_INTEGER_INTRINSICS.put("+", "add");
+        SMALL_INTEGER_INTRINSICS.put("-", "subtract");
+        SMALL_INTEGER_INTRINSICS.put("*", "multiply");
+        SMALL_INTEGER_INTRINSICS.put("<", "lessThan");
+        SMALL_INTEGER_INTRINSICS.put(">", "greaterThan");
+        SMALL_INTEGER_INTRINSICS.put("<=", "lessOrEqual");
+        SMALL_INTEGER_INTRINSICS.put(">=", "greaterOrEqual");
+        SMALL_INTEGER_INTRINSICS.put("=", "equal");
+    }
+
     static {
         int compareTo18 = new BigDecimal(System.getProperty("java.specification.version")).compareTo(new BigDecimal("1.8"));
         if (compareTo18 >= 0) {
@@ -168,24 +183,23 @@ public class SmalltalkGeneratingVisitor extends SmalltalkBaseVisitor<Void> imple
 
     /* Generate code:
      * <code>
-       primContext.instVarAt(var);
+       invokedynamic instVarAt(receiver) [var]
        </code>
+       Call site is linked by InstVarSite.bootstrap and loads slot of receiver.
      */
     public void pushInstVar(MethodVisitor mv, String var) {
-        pushContext(mv);
-        pushLiteral(mv, var);
-        mv.visitMethodInsn(INVOKEVIRTUAL, contextName(), "instVarAt", "(Ljava/lang/String;)Lst/redline/core/PrimObject;", false);
+        pushReceiver(mv);
+        mv.visitInvokeDynamicInsn("instVarAt", "(Lst/redline/core/PrimObject;)Lst/redline/core/PrimObject;", INST_VAR_BOOTSTRAP, var);
     }
 
     /* Generate code:
      * <code>
-       static PrimContext.instVarPutAt(primObject, identifier, primContext);
+       invokedynamic instVarAtPut(primObject, receiver) [identifier]
        </code>
      */
     public void storeInstVar(MethodVisitor mv, String identifier) {
-        pushLiteral(mv, identifier);
-        pushContext(mv);
-        mv.visitMethodInsn(INVOKESTATIC, contextName(), "instVarPutAt", "(Lst/redline/core/PrimObject;Ljava/lang/String;L" + contextName() + ";)V", false);
+        pushReceiver(mv);
+        mv.visitInvokeDynamicInsn("instVarAtPut", "(Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;)V", INST_VAR_BOOTSTRAP, identifier);
     }
 
     /* Generate code:
@@ -234,13 +248,13 @@ public class SmalltalkGeneratingVisitor extends SmalltalkBaseVisitor<Void> imple
 
     /* Generate code:
      * <code>
-       primObject.reference(name);
+       invokedynamic name(receiver)
        </code>
+       Call site resolves the name once, see ReferenceSite.
      */
     public void pushReference(MethodVisitor mv, String name) {
         pushReceiver(mv);
-        pushLiteral(mv, name);
-        mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, "reference", "(Ljava/lang/String;)Lst/redline/core/PrimObject;", false);
+        mv.visitInvokeDynamicInsn(name, "(Lst/redline/core/PrimObject;)Lst/redline/core/PrimObject;", REFERENCE_BOOTSTRAP);
     }
 
     /* Generate code:
@@ -256,55 +270,89 @@ public class SmalltalkGeneratingVisitor extends SmalltalkBaseVisitor<Void> imple
 
     /* Generate code:
      * <code>
-       primObject.referenceNil();
+       invokedynamic nil()
        </code>
+       nil, true and false are constants linked by LiteralSite.bootstrapConstant.
      */
     public void pushNil(MethodVisitor mv) {
-        pushReceiver(mv);
-        mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, "referenceNil", "()Lst/redline/core/PrimObject;", false);
+        mv.visitInvokeDynamicInsn("nil", "()Lst/redline/core/PrimObject;", CONSTANT_BOOTSTRAP);
     }
 
     /* Generate code:
      * <code>
-       primObject.referenceTrue();
+       invokedynamic true()
        </code>
      */
     public void pushTrue(MethodVisitor mv) {
-        pushReceiver(mv);
-        mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, "referenceTrue", "()Lst/redline/core/PrimObject;", false);
+        mv.visitInvokeDynamicInsn("true", "()Lst/redline/core/PrimObject;", CONSTANT_BOOTSTRAP);
     }
 
     /* Generate code:
      * <code>
-       primObject.referenceFalse();
+       invokedynamic false()
        </code>
      */
     public void pushFalse(MethodVisitor mv) {
-        pushReceiver(mv);
-        mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, "referenceFalse", "()Lst/redline/core/PrimObject;", false);
+        mv.visitInvokeDynamicInsn("false", "()Lst/redline/core/PrimObject;", CONSTANT_BOOTSTRAP);
     }
 
-    /* Generate code (assuming arguments are already on stack):
+    /* Generate code (assuming receiver and arguments are already on stack):
      * <code>
-       primObject.perform(arg0, selector);
-       primObject.perform(arg0, arg1, selector);
-       primObject.perform(arg0, arg1, ..., argN, selector);
-       primObject.superPerform(arg0, selector);
-       primObject.superPerform(arg0, arg1, selector);
-       primObject.superPerform(arg0, arg1, ..., argN, selector);
+       invokedynamic perform(primObject, arg0, ..., argN) [selector]
+       invokedynamic superPerform(primObject, arg0, ..., argN) [selector]
+       invokedynamic perform(primObject, PrimObject[] args) [selector]
        </code>
+       Call site is linked by SendSite.bootstrap and caches looked up method per receiver class.
      */
     public void invokePerform(MethodVisitor mv, String selector, int argumentCount, boolean sendToSuper) {
-        pushLiteral(mv, selector);
         String methodName = (sendToSuper) ? "superPerform" : "perform";
-        if (argumentCount < PERFORM_METHOD_SIGNATURES.length) {
-            mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, methodName, PERFORM_METHOD_SIGNATURES[argumentCount], false);
+        if (argumentCount <= MAX_SEND_ARGUMENTS) {
+            mv.visitInvokeDynamicInsn(methodName, sendSignature(argumentCount), SEND_BOOTSTRAP, selector);
         }
         else {
-            mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, methodName, PERFORM_METHOD_ARRAY_SIGNATURE, false);
+            mv.visitInvokeDynamicInsn(methodName, SEND_ARRAY_SIGNATURE, SEND_BOOTSTRAP, selector);
         }
     }
 
+    /* Generate code (assuming receiver and argument are already on stack):
+     * <code>
+       result = PrimSmallInteger.add(primObject, arg0);
+       if (result == null)
+           result = invokedynamic perform(primObject, arg0) [selector]
+       </code>
+       Intrinsic is generated only for selectors in SMALL_INTEGER_INTRINSICS, other binary messages are sent.
+     */
+    public void invokeBinaryPerform(MethodVisitor mv, String selector, boolean sendToSuper) {
+        String intrinsic = SMALL_INTEGER_INTRINSICS.get(selector);
+        if (intrinsic == null || sendToSuper) {
+            invokePerform(mv, selector, 1, sendToSuper);
+            return;
+        }
+        Label send = new Label();
+        Label done = new Label();
+        mv.visitInsn(DUP2);
+        mv.visitMethodInsn(INVOKESTATIC, PRIM_SMALL_INTEGER_CLASS, intrinsic,
+                "(Lst/redline/core/PrimObject;Lst/redline/core/PrimObject;)Lst/redline/core/PrimObject;", false);
+        mv.visitInsn(DUP);
+        mv.visitJumpInsn(IFNULL, send);
+        // Drop receiver and argument below result.
+        mv.visitInsn(DUP_X2);
+        mv.visitInsn(POP);
+        mv.visitInsn(POP2);
+        mv.visitJumpInsn(GOTO, done);
+        mv.visitLabel(send);
+        mv.visitInsn(POP);
+        invokePerform(mv, selector, 1, false);
+        mv.visitLabel(done);
+    }
+
+    private static String sendSignature(int argumentCount) {
+        StringBuilder signature = new StringBuilder("(");
+        for (int i = 0; i <= argumentCount; i++)
+            signature.append("Lst/redline/core/PrimObject;");
+        return signature.append(")Lst/redline/core/PrimObject;").toString();
+    }
+
     public void visitLine(MethodVisitor mv, int line) {
         Label l0 = new Label();
         mv.visitLabel(l0);
@@ -328,42 +376,60 @@ public class SmalltalkGeneratingVisitor extends SmalltalkBaseVisitor<Void> imple
         }
     }
 
-    /* Convert Java value to Smalltalk PrimObject value and put on stack:
+    /* Generate code:
+     * <code>
+       invokedynamic {type}(receiver) [value]
+       </code>
+       `type` could be "character", "float", "integer", "string" or "symbol". Call site is linked by
+       LiteralSite.bootstrap, it creates the literal object on first execution and answers the same object later.
+     */
+    public void pushLiteralObject(MethodVisitor mv, String type, String value, int line) {
+        visitLine(mv, line);
+        pushReceiver(mv);
+        mv.visitInvokeDynamicInsn(type, "(Lst/redline/core/PrimObject;)Lst/redline/core/PrimObject;", LITERAL_BOOTSTRAP, value);
+    }
+
+    public void pushSymbol(MethodVisitor mv, String symbol, int line) {
+        pushLiteralObject(mv, "symbol", symbol, line);
+    }
+
+    /* Generate code:
      * <code>
-       primObject.{type}(value);
+       invokedynamic array(receiver) [className.methodName]
        </code>
-       `type` could be "smalltalkArray", "smalltalkCharacter", "smalltalkInteger", "smalltalkString" or "smalltalkSymbol"
+       Static method `methodName` creates the literal array, call site calls it on first execution only.
      */
-    public void pushNewObject(MethodVisitor mv, String type, String value, int line) {
+    public void pushLiteralArray(MethodVisitor mv, String className, String methodName, String sig, int line) {
         visitLine(mv, line);
         pushReceiver(mv);
-        pushLiteral(mv, value);
-        mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, type, "(Ljava/lang/Object;)Lst/redline/core/PrimObject;", false);
+        final Handle arrayMethodHandle = new Handle(Opcodes.H_INVOKESTATIC, className, methodName, sig, false);
+        mv.visitInvokeDynamicInsn("array", "(Lst/redline/core/PrimObject;)Lst/redline/core/PrimObject;", LITERAL_BOOTSTRAP, arrayMethodHandle);
     }
 
-    /* Create BlockClosure class to wrap smalltalk block lambda (with ^ answer or without)
+    /* Create BlockClosure class to wrap smalltalk block lambda
      * <code>
        primObject.smalltalkBlock(lambdaObject, context);
-       primObject.smalltalkBlockAnswer(lambdaObject, context);
        </code>
-       `type` could be "smalltalkArray", "smalltalkCharacter", "smalltalkInteger", "smalltalkString" or "smalltalkSymbol"
      */
-    public void pushNewBlock(MethodVisitor mv, String className, String name, String sig, int line, boolean answerBlock, String answerBlockClassName) {
+    public void pushNewBlock(MethodVisitor mv, String className, String name, String sig, int line) {
         pushReceiver(mv);
         pushNewLambda(mv, className, name, sig, line);
         pushContext(mv);
-        if (!answerBlock) {
-            mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, "smalltalkBlock", "(Ljava/lang/Object;Lst/redline/core/PrimContext;)Lst/redline/core/PrimObject;", false);
-        } else {
-            pushLiteral(mv, answerBlockClassName);
-            mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, "smalltalkBlockAnswer", "(Ljava/lang/Object;Lst/redline/core/PrimContext;Ljava/lang/String;)Lst/redline/core/PrimObject;", false);
-        }
+        mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, "smalltalkBlock", "(Ljava/lang/Object;Lst/redline/core/PrimContext;)Lst/redline/core/PrimObject;", false);
     }
 
+    /* Create CompiledMethod wrapping method lambda. Method remembers static method implementing it, so it can be
+     * restored from image snapshot (see ImageSnapshot).
+     * <code>
+       primObject.smalltalkMethod(lambdaObject, className, name);
+       </code>
+     */
     public void pushNewMethod(MethodVisitor mv, String className, String name, String sig, int line) {
         pushReceiver(mv);
         pushNewLambda(mv, className, name, sig, line);
-        mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, "smalltalkMethod", "(Ljava/lang/Object;)Lst/redline/core/PrimMethod;", false);
+        mv.visitLdcInsn(className);
+        mv.visitLdcInsn(name);
+        mv.visitMethodInsn(INVOKEVIRTUAL, PRIM_OBJECT_CLASS, "smalltalkMethod", "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/String;)Lst/redline/core/PrimMethod;", false);
     }
 
     /* Generate lambda function with LambdaBlock interface. Body of the lambda function is static method
@@ -416,18 +482,6 @@ public class SmalltalkGeneratingVisitor extends SmalltalkBaseVisitor<Void> imple
         }
     }
 
-
-    protected static class BlockAnswerRecord {
-
-        public final String exceptionName;
-        public Label handlerLabel;
-
-        public BlockAnswerRecord(String name) {
-            this.exceptionName = name.replaceAll("\\.", "/");
-            this.handlerLabel = new Label();
-        }
-    }
-
     protected static class KeywordRecord {
 
         public StringBuilder keyword = new StringBuilder();
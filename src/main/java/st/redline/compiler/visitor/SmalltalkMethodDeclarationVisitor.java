@@ -42,6 +42,11 @@ public class SmalltalkMethodDeclarationVisitor extends BlockGeneratorVisitor {
                 "Use BlockGeneratorVisitor instead.");
     }
 
+    @Override
+    protected boolean isHomeMethod() {
+        return true;
+    }
+
     /* Generate method block and add it to class:
        <code>
        reference(className).addMethod(methodSelector, () -> {
@@ -58,6 +63,7 @@ public class SmalltalkMethodDeclarationVisitor extends BlockGeneratorVisitor {
         //Generating Java method from method declaration `sequence`.
         openBlockLambdaMethod();
         SmalltalkParser.SequenceContext blockSequence = ctx.sequence();
+        openBlockAnswerHandler(blockSequence);
         if (blockSequence != null)
             blockSequence.accept(currentVisitor());
         boolean returnRequired = returnRequired(blockSequence);
@@ -0,0 +1,33 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.core;
+
+/* Binding of a global name (class or other global object) to its value, as kept by the class loader.
+ * There is one binding per fully qualified name, so call sites can hold the binding and see rebinding of the
+ * name without looking it up again.
+ */
+public final class GlobalBinding {
+
+    private final String name;
+    private volatile PrimObject value;
+
+    public GlobalBinding(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public PrimObject value() {
+        return value;
+    }
+
+    public void value(PrimObject value) {
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return name + "->" + value;
+    }
+}
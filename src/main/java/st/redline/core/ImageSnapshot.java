@@ -0,0 +1,426 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import st.redline.classloader.SmalltalkClassLoader;
+
+import java.io.*;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static java.lang.invoke.MethodType.methodType;
+import static st.redline.core.PrimDoesNotUnderstand.PRIM_DOES_NOT_UNDERSTAND;
+import static st.redline.core.PrimSubclassMethod.PRIM_SUBCLASS_METHOD;
+
+/* Snapshot of bootstrapped objects - classes with their methods, nil, true, false, other globals and symbols -
+ * so next start restores them from file instead of executing kernel classes again, as Smalltalk starts from image.
+ * Compiled methods are saved as name of static method implementing them. Restored method creates its lambda when
+ * it is invoked first, so kernel classes are loaded only when their methods are used.
+ * Snapshot is valid for the key it was saved with only, Bootstrapper makes the key of compiler and kernel sources.
+ * <code>
+   magic version key
+   count  object*          kind and what object is created from
+   object fields*          selfClass slots [superclass methods]
+   nil true false
+   count  (name object)*   globals
+   count  object*          symbols
+   </code>
+ */
+public final class ImageSnapshot {
+    private static final Logger log = LogManager.getLogger(ImageSnapshot.class);
+
+    public static final String FILE_PROPERTY = "redline.image";
+    private static final int MAGIC = 0x52494d47;
+    private static final int VERSION = 1;
+
+    private static final byte CLASS = 1;
+    private static final byte METHOD = 2;
+    private static final byte OBJECT = 3;
+    private static final byte SYMBOL = 4;
+    private static final byte PRIMITIVE = 5;
+
+    private static final String DOES_NOT_UNDERSTAND = "doesNotUnderstand";
+    private static final String SUBCLASS = "subclass";
+    private static final String ADD_METHOD = "addMethod";
+
+    private static final MethodType LAMBDA_TYPE = methodType(PrimObject.class, PrimObject.class, PrimObject.class, PrimContext.class);
+
+    private ImageSnapshot() {
+    }
+
+    /* Save objects of bootstrapped class loader. Answer false when some object can't be saved, no file is written then. */
+    public static boolean save(SmalltalkClassLoader classLoader, Path file, String key) {
+        final Writer writer = new Writer();
+        try {
+            writer.add(classLoader.nilInstance());
+            writer.add(classLoader.trueInstance());
+            writer.add(classLoader.falseInstance());
+            for (GlobalBinding binding : classLoader.bindings())
+                if (binding.value() != null)
+                    writer.add(binding.value());
+            for (PrimObject symbol : classLoader.internedSymbols())
+                writer.add(symbol);
+        } catch (UnsupportedOperationException e) {
+            log.info("Image snapshot is not saved: {}", e.getMessage());
+            return false;
+        }
+        try {
+            final Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            // Write other file and move it, so other processes never read partially written snapshot.
+            final Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                writer.write(output, classLoader, key);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Saved image snapshot {} of {} objects.", file, writer.objects.size());
+            return true;
+        } catch (IOException e) {
+            log.warn("Can't save image snapshot {}.", file, e);
+            return false;
+        }
+    }
+
+    /* Restore objects into class loader. Answer false, changing nothing, when file is missing, unreadable or saved
+     * with other key.
+     */
+    public static boolean restore(SmalltalkClassLoader classLoader, Path file, String key) {
+        if (!Files.isRegularFile(file))
+            return false;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final Reader reader = new Reader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            if (!reader.readHeader(key)) {
+                log.info("Image snapshot {} was saved by other compiler or kernel, ignoring it.", file);
+                return false;
+            }
+            reader.read(classLoader);
+            log.info("Restored image snapshot {} of {} objects.", file, reader.objects.length);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Can't restore image snapshot {}.", file, e);
+            return false;
+        }
+    }
+
+    // Primitive methods are saved by name, they have no state.
+    private static boolean isPrimitive(PrimObject object) {
+        return object == PRIM_DOES_NOT_UNDERSTAND || object == PRIM_SUBCLASS_METHOD || object.getClass() == PrimAddMethod.class;
+    }
+
+    private static final class Writer {
+
+        private final Map<PrimObject, Integer> indexes = new IdentityHashMap<>();
+        private final List<PrimObject> objects = new ArrayList<>();
+
+        // Add object and objects it references.
+        void add(PrimObject root) {
+            final Deque<PrimObject> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                final PrimObject object = pending.pop();
+                if (indexes.containsKey(object))
+                    continue;
+                checkSupported(object);
+                indexes.put(object, objects.size());
+                objects.add(object);
+                if (isPrimitive(object))
+                    continue;
+                addReference(pending, object.selfClass());
+                if (object.slots() != null)
+                    for (PrimObject slot : object.slots())
+                        addReference(pending, slot);
+                if (object instanceof PrimClass) {
+                    addReference(pending, ((PrimClass) object).superclass());
+                    ((PrimClass) object).methods().forEach((selector, method) -> addReference(pending, method));
+                }
+            }
+        }
+
+        private static void addReference(Deque<PrimObject> pending, PrimObject object) {
+            if (object != null)
+                pending.push(object);
+        }
+
+        private void checkSupported(PrimObject object) {
+            final Class<?> type = object.getClass();
+            if (isPrimitive(object)) {
+                if (object.selfClass() != null || object.slots() != null)
+                    throw new UnsupportedOperationException("primitive method " + type.getName() + " has state.");
+            } else if (type == PrimClass.class) {
+                if (((PrimClass) object).instanceClass() != null)
+                    throw new UnsupportedOperationException("class " + object + " has generated instance class.");
+            } else if (type == PrimMethod.class) {
+                if (((PrimMethod) object).implementationClass() == null)
+                    throw new UnsupportedOperationException("method " + object + " was not compiled.");
+            } else if (type == PrimObject.class) {
+                if (object.javaValue() != null && !(object.javaValue() instanceof String))
+                    throw new UnsupportedOperationException("object " + object + " has value of " + object.javaValue().getClass().getName() + ".");
+            } else {
+                throw new UnsupportedOperationException("object " + object + " is " + type.getName() + ".");
+            }
+        }
+
+        void write(DataOutputStream output, SmalltalkClassLoader classLoader, String key) throws IOException {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            writeString(output, key);
+            output.writeInt(objects.size());
+            for (PrimObject object : objects)
+                writeObject(output, object);
+            for (PrimObject object : objects)
+                if (!isPrimitive(object))
+                    writeFields(output, object);
+            writeReference(output, classLoader.nilInstance());
+            writeReference(output, classLoader.trueInstance());
+            writeReference(output, classLoader.falseInstance());
+            final Collection<GlobalBinding> bindings = classLoader.bindings();
+            output.writeInt(bindings.size());
+            for (GlobalBinding binding : bindings) {
+                writeString(output, binding.name());
+                writeReference(output, binding.value());
+            }
+            final List<PrimObject> symbols = new ArrayList<>();
+            for (PrimObject object : objects)
+                if (isSymbol(object))
+                    symbols.add(object);
+            output.writeInt(symbols.size());
+            for (PrimObject symbol : symbols)
+                writeReference(output, symbol);
+        }
+
+        private void writeObject(DataOutputStream output, PrimObject object) throws IOException {
+            if (object == PRIM_DOES_NOT_UNDERSTAND) {
+                output.writeByte(PRIMITIVE);
+                writeString(output, DOES_NOT_UNDERSTAND);
+            } else if (object == PRIM_SUBCLASS_METHOD) {
+                output.writeByte(PRIMITIVE);
+                writeString(output, SUBCLASS);
+            } else if (object instanceof PrimAddMethod) {
+                output.writeByte(PRIMITIVE);
+                writeString(output, ADD_METHOD);
+            } else if (object instanceof PrimClass) {
+                final PrimClass primClass = (PrimClass) object;
+                output.writeByte(CLASS);
+                writeString(output, primClass.name());
+                output.writeBoolean(primClass.isMeta());
+                final String[] instanceVariableNames = primClass.instanceVariableNames();
+                output.writeInt(instanceVariableNames.length);
+                for (String name : instanceVariableNames)
+                    writeString(output, name);
+                writeString(output, primClass.category());
+            } else if (object instanceof PrimMethod) {
+                final PrimMethod method = (PrimMethod) object;
+                output.writeByte(METHOD);
+                writeString(output, method.implementationClass());
+                writeString(output, method.implementationName());
+            } else {
+                output.writeByte(isSymbol(object) ? SYMBOL : OBJECT);
+                writeString(output, (String) object.javaValue());
+            }
+        }
+
+        private void writeFields(DataOutputStream output, PrimObject object) throws IOException {
+            writeReference(output, object.selfClass());
+            final PrimObject[] slots = object.slots();
+            output.writeInt(slots != null ? slots.length : -1);
+            if (slots != null)
+                for (PrimObject slot : slots)
+                    writeReference(output, slot);
+            if (object instanceof PrimClass) {
+                final PrimClass primClass = (PrimClass) object;
+                writeReference(output, primClass.superclass());
+                final List<Selector> selectors = new ArrayList<>();
+                final List<PrimMethod> methods = new ArrayList<>();
+                primClass.methods().forEach((selector, method) -> {
+                    selectors.add(selector);
+                    methods.add(method);
+                });
+                output.writeInt(selectors.size());
+                for (int i = 0; i < selectors.size(); i++) {
+                    writeString(output, selectors.get(i).name());
+                    writeReference(output, methods.get(i));
+                }
+            }
+        }
+
+        private static boolean isSymbol(PrimObject object) {
+            final PrimClass selfClass = object.selfClass();
+            return object.getClass() == PrimObject.class && object.javaValue() instanceof String
+                    && selfClass != null && "Symbol".equals(selfClass.name());
+        }
+
+        private void writeReference(DataOutputStream output, PrimObject object) throws IOException {
+            output.writeInt(object != null ? indexes.get(object) : -1);
+        }
+
+        private static void writeString(DataOutputStream output, String string) throws IOException {
+            if (string == null) {
+                output.writeInt(-1);
+                return;
+            }
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private static final class Reader {
+
+        private final ByteBuffer buffer;
+        private PrimObject[] objects;
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        boolean readHeader(String key) {
+            return buffer.remaining() >= 8 && buffer.getInt() == MAGIC && buffer.getInt() == VERSION
+                    && key.equals(readString());
+        }
+
+        // Objects are created and linked first, class loader gets them when all are read.
+        void read(SmalltalkClassLoader classLoader) {
+            objects = new PrimObject[buffer.getInt()];
+            for (int i = 0; i < objects.length; i++)
+                objects[i] = readObject(classLoader);
+            for (PrimObject object : objects)
+                if (!isPrimitive(object))
+                    readFields(object);
+            final PrimObject nil = readReference();
+            final PrimObject trueInstance = readReference();
+            final PrimObject falseInstance = readReference();
+            final Map<String, PrimObject> globals = new LinkedHashMap<>();
+            for (int count = buffer.getInt(); count > 0; count--)
+                globals.put(readString(), readReference());
+            final List<PrimObject> symbols = new ArrayList<>();
+            for (int count = buffer.getInt(); count > 0; count--)
+                symbols.add(readReference());
+
+            for (PrimObject object : objects)
+                if (object instanceof PrimClass)
+                    ((PrimClass) object).classLoader(classLoader);
+            classLoader.nilInstance(nil);
+            classLoader.trueInstance(trueInstance);
+            classLoader.falseInstance(falseInstance);
+            for (Map.Entry<String, PrimObject> global : globals.entrySet())
+                classLoader.cacheObject(global.getKey(), global.getValue());
+            for (PrimObject symbol : symbols)
+                classLoader.internSymbolAtPut((String) symbol.javaValue(), symbol);
+        }
+
+        private PrimObject readObject(SmalltalkClassLoader classLoader) {
+            final byte kind = buffer.get();
+            switch (kind) {
+                case CLASS:
+                    final String name = readString();
+                    final boolean meta = buffer.get() != 0;
+                    final String[] instanceVariableNames = new String[buffer.getInt()];
+                    for (int i = 0; i < instanceVariableNames.length; i++)
+                        instanceVariableNames[i] = readString();
+                    return new PrimClass(name, meta, instanceVariableNames, readString());
+                case METHOD:
+                    final PrimMethod method = new PrimMethod(null, readString(), readString());
+                    method.javaValue(new RestoredLambda(classLoader, method));
+                    return method;
+                case OBJECT:
+                case SYMBOL:
+                    final PrimObject object = new PrimObject();
+                    object.javaValue(readString());
+                    return object;
+                case PRIMITIVE:
+                    return primitive(readString());
+                default:
+                    throw new IllegalStateException("Unknown object kind " + kind + ".");
+            }
+        }
+
+        private static PrimObject primitive(String name) {
+            switch (name) {
+                case DOES_NOT_UNDERSTAND:
+                    return PRIM_DOES_NOT_UNDERSTAND;
+                case SUBCLASS:
+                    return PRIM_SUBCLASS_METHOD;
+                case ADD_METHOD:
+                    return new PrimAddMethod();
+                default:
+                    throw new IllegalStateException("Unknown primitive method '" + name + "'.");
+            }
+        }
+
+        private void readFields(PrimObject object) {
+            object.selfClass((PrimClass) readReference());
+            final int slotCount = buffer.getInt();
+            if (slotCount >= 0) {
+                final PrimObject[] slots = new PrimObject[slotCount];
+                for (int i = 0; i < slotCount; i++)
+                    slots[i] = readReference();
+                object.slots(slots);
+            }
+            if (object instanceof PrimClass) {
+                final PrimClass primClass = (PrimClass) object;
+                primClass.superclass((PrimClass) readReference());
+                for (int count = buffer.getInt(); count > 0; count--)
+                    primClass.methods().put(Selector.of(readString()), (PrimMethod) readReference());
+            }
+        }
+
+        private PrimObject readReference() {
+            final int index = buffer.getInt();
+            return index >= 0 ? objects[index] : null;
+        }
+
+        private String readString() {
+            final int length = buffer.getInt();
+            if (length < 0)
+                return null;
+            final byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /* Lambda of restored method. It creates lambda of the method from the class implementing it on first invocation,
+     * the method invokes that lambda from then on.
+     */
+    private static final class RestoredLambda implements LambdaBlock {
+
+        private final SmalltalkClassLoader classLoader;
+        private final PrimMethod method;
+
+        RestoredLambda(SmalltalkClassLoader classLoader, PrimMethod method) {
+            this.classLoader = classLoader;
+            this.method = method;
+        }
+
+        @Override
+        public PrimObject apply(PrimObject thiz, PrimObject receiver, PrimContext context) {
+            final LambdaBlock lambda = lambda();
+            method.javaValue(lambda);
+            return lambda.apply(thiz, receiver, context);
+        }
+
+        private LambdaBlock lambda() {
+            final String className = method.implementationClass().replace('/', '.');
+            try {
+                final Class<?> implementationClass = classLoader.loadClass(className);
+                final MethodHandles.Lookup lookup = (MethodHandles.Lookup) implementationClass.getMethod("methodLookup").invoke(null);
+                final MethodHandle implementation = lookup.findStatic(implementationClass, method.implementationName(), LAMBDA_TYPE);
+                return (LambdaBlock) LambdaMetafactory.metafactory(lookup, "apply", methodType(LambdaBlock.class),
+                        LAMBDA_TYPE, implementation, LAMBDA_TYPE).getTarget().invoke();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Can't restore method " + className + "." + method.implementationName() + ".", e);
+            }
+        }
+    }
+}
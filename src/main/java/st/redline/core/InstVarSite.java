@@ -0,0 +1,190 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.core;
+
+import java.lang.invoke.*;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/* Call site of instance variable access. Compiler emits invokedynamic instruction for every read and write
+ * of instance variable and InstVarSite.bootstrap links it. Site caches slot index of the variable per
+ * receiver class, so access becomes class check and array load. After MAX_CACHE_DEPTH receiver classes
+ * site resolves slot index on every access.
+ * When receiver is an instance of JVM class generated for Smalltalk class (see PrimClass.instanceClass()),
+ * site accesses the field of that class directly.
+ * Change of class hierarchy changes slot layout and invalidates sites of its runtime (see MethodCache.layoutChanged()).
+ * Receiver of class which is not in a runtime yet is accessed uncached.
+ */
+public class InstVarSite extends MutableCallSite {
+
+    private static final int MAX_CACHE_DEPTH = 4;
+
+    private static final MethodHandle CLASS_TEST;
+    private static final MethodHandle INSTANCE_CLASS_TEST;
+    private static final MethodHandle SLOT_AT;
+    private static final MethodHandle SLOT_AT_PUT;
+    private static final MethodHandle INST_VAR_AT;
+    private static final MethodHandle INST_VAR_AT_PUT;
+    private static final MethodHandle RESOLVE_AT;
+    private static final MethodHandle RESOLVE_AT_PUT;
+
+    private final String variable;
+    private final boolean store;
+    private final MethodHandle fallback;
+    private MethodHandle cache;
+    private SwitchPoint cacheSwitchPoint;
+    private int cacheDepth;
+
+    /* Bootstrap method of invokedynamic instruction generated by compiler:
+       <code>
+       invokedynamic instVarAt(receiver) [variable]
+       invokedynamic instVarAtPut(value, receiver) [variable]
+       </code>
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, String variable) {
+        return new InstVarSite(type, variable, "instVarAtPut".equals(name));
+    }
+
+    private InstVarSite(MethodType type, String variable, boolean store) {
+        super(type);
+        this.variable = variable;
+        this.store = store;
+        this.fallback = (store ? RESOLVE_AT_PUT : RESOLVE_AT).bindTo(this);
+        this.cache = fallback;
+        setTarget(fallback);
+    }
+
+    private PrimObject resolveAt(PrimObject receiver) {
+        final int index = resolve(receiver);
+        return receiver.slotAt(index);
+    }
+
+    private void resolveAtPut(PrimObject value, PrimObject receiver) {
+        final int index = resolve(receiver);
+        receiver.slotAtPut(index, value);
+    }
+
+    private int resolve(PrimObject receiver) {
+        final MethodCache methodCache = receiver.selfClass().methodCache();
+        if (methodCache == null)
+            return indexOf(variable, receiver);
+        final SwitchPoint switchPoint = methodCache.layoutSwitchPoint();
+        final int index = indexOf(variable, receiver);
+        relink(switchPoint, receiver, index);
+        return index;
+    }
+
+    private synchronized void relink(SwitchPoint switchPoint, PrimObject receiver, int index) {
+        final PrimClass receiverClass = receiver.selfClass();
+        if (switchPoint.hasBeenInvalidated())
+            return;
+        if (cacheSwitchPoint != switchPoint) {
+            // Slot layout was changed since cache was created. Start from empty cache.
+            cacheSwitchPoint = switchPoint;
+            cache = fallback;
+            cacheDepth = 0;
+        }
+        if (cacheDepth < MAX_CACHE_DEPTH) {
+            final MethodHandle fieldAccess = fieldAccess(receiver);
+            if (fieldAccess != null)
+                cache = MethodHandles.guardWithTest(instanceClassTest(receiverClass, receiver.getClass()), fieldAccess, cache);
+            else
+                cache = MethodHandles.guardWithTest(classTest(receiverClass), slotAccess(index), cache);
+            cacheDepth++;
+        } else if (cacheDepth == MAX_CACHE_DEPTH) {
+            cache = MethodHandles.insertArguments(store ? INST_VAR_AT_PUT : INST_VAR_AT, 0, variable);
+            cacheDepth++;
+        }
+        setTarget(switchPoint.guardWithTest(cache, fallback));
+    }
+
+    private MethodHandle classTest(PrimClass receiverClass) {
+        MethodHandle test = CLASS_TEST.bindTo(receiverClass);
+        return store ? MethodHandles.dropArguments(test, 0, PrimObject.class) : test;
+    }
+
+    private MethodHandle instanceClassTest(PrimClass receiverClass, Class<?> instanceClass) {
+        MethodHandle test = MethodHandles.insertArguments(INSTANCE_CLASS_TEST, 0, receiverClass, instanceClass);
+        return store ? MethodHandles.dropArguments(test, 0, PrimObject.class) : test;
+    }
+
+    // Answer getter or setter of instance variable field, or null when receiver keeps the variable in slots.
+    private MethodHandle fieldAccess(PrimObject receiver) {
+        final Class<? extends PrimObject> instanceClass = receiver.selfClass().instanceClass();
+        if (instanceClass == null || receiver.getClass() != instanceClass)
+            return null;
+        try {
+            if (store)
+                return MethodHandles.permuteArguments(
+                        MethodHandles.publicLookup().findSetter(instanceClass, variable, PrimObject.class)
+                                .asType(methodType(void.class, PrimObject.class, PrimObject.class)),
+                        methodType(void.class, PrimObject.class, PrimObject.class), 1, 0);
+            return MethodHandles.publicLookup().findGetter(instanceClass, variable, PrimObject.class)
+                    .asType(methodType(PrimObject.class, PrimObject.class));
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            // Variable is inherited from class without generated instance class.
+            return null;
+        }
+    }
+
+    private MethodHandle slotAccess(int index) {
+        if (store)
+            return MethodHandles.insertArguments(SLOT_AT_PUT, 0, index);
+        return MethodHandles.insertArguments(SLOT_AT, 0, index);
+    }
+
+    private static int indexOf(String variable, PrimObject receiver) {
+        final PrimClass receiverClass = receiver.selfClass();
+        final int index = receiverClass.indexOfInstanceVar(variable);
+        if (index < 0)
+            throw new FieldNotFoundException("Class "+receiverClass.name()+" doesn't have field "+variable);
+        return index;
+    }
+
+    private static boolean isReceiverClass(PrimClass receiverClass, PrimObject receiver) {
+        return receiver.selfClass() == receiverClass;
+    }
+
+    private static boolean isReceiverInstance(PrimClass receiverClass, Class<?> instanceClass, PrimObject receiver) {
+        return receiver.getClass() == instanceClass && receiver.selfClass() == receiverClass;
+    }
+
+    private static PrimObject slotAt(int index, PrimObject receiver) {
+        return receiver.slotAt(index);
+    }
+
+    private static void slotAtPut(int index, PrimObject value, PrimObject receiver) {
+        receiver.slotAtPut(index, value);
+    }
+
+    private static PrimObject instVarAt(String variable, PrimObject receiver) {
+        return receiver.slotAt(indexOf(variable, receiver));
+    }
+
+    private static void instVarAtPut(String variable, PrimObject value, PrimObject receiver) {
+        receiver.slotAtPut(indexOf(variable, receiver), value);
+    }
+
+    static {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            CLASS_TEST = lookup.findStatic(InstVarSite.class, "isReceiverClass",
+                    methodType(boolean.class, PrimClass.class, PrimObject.class));
+            INSTANCE_CLASS_TEST = lookup.findStatic(InstVarSite.class, "isReceiverInstance",
+                    methodType(boolean.class, PrimClass.class, Class.class, PrimObject.class));
+            SLOT_AT = lookup.findStatic(InstVarSite.class, "slotAt",
+                    methodType(PrimObject.class, int.class, PrimObject.class));
+            SLOT_AT_PUT = lookup.findStatic(InstVarSite.class, "slotAtPut",
+                    methodType(void.class, int.class, PrimObject.class, PrimObject.class));
+            INST_VAR_AT = lookup.findStatic(InstVarSite.class, "instVarAt",
+                    methodType(PrimObject.class, String.class, PrimObject.class));
+            INST_VAR_AT_PUT = lookup.findStatic(InstVarSite.class, "instVarAtPut",
+                    methodType(void.class, String.class, PrimObject.class, PrimObject.class));
+            RESOLVE_AT = lookup.findVirtual(InstVarSite.class, "resolveAt",
+                    methodType(PrimObject.class, PrimObject.class));
+            RESOLVE_AT_PUT = lookup.findVirtual(InstVarSite.class, "resolveAtPut",
+                    methodType(void.class, PrimObject.class, PrimObject.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.core;
+
+import st.redline.classloader.SmalltalkClassLoader;
+
+import java.lang.invoke.*;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/* Call site of a literal which is resolved once. Compiler emits invokedynamic instruction for every literal and
+ * LiteralSite.bootstrap links it. First execution creates the literal object and the site answers the same object
+ * from then on, so literals are shared by all executions of the code as in other Smalltalks.
+ * Literals are not created when the class is initialized, because classes of literals (String, Symbol, ...)
+ * may not be loaded yet when a kernel class is.
+ * Threads executing the site for the first time at once may each create the literal, but only the first one created
+ * is published and answered to all of them. The literal is created outside of the lock, as creating it may load
+ * classes or run code that waits for other threads.
+ */
+public class LiteralSite extends MutableCallSite {
+
+    private static final MethodHandle RESOLVE;
+
+    private final String type;
+    private final Object value;
+    private PrimObject literal;
+
+    /* Bootstrap method of invokedynamic instruction generated by compiler:
+       <code>
+       invokedynamic symbol(receiver) [value]
+       invokedynamic string(receiver) [value]
+       invokedynamic integer(receiver) [value]
+       invokedynamic float(receiver) [value]
+       invokedynamic character(receiver) [value]
+       invokedynamic array(receiver) [handle of generated method creating array]
+       </code>
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, Object value) {
+        return new LiteralSite(type, name, value);
+    }
+
+    /* Bootstrap method of invokedynamic instruction generated by compiler for nil, true and false:
+       <code>
+       invokedynamic nil()
+       invokedynamic true()
+       invokedynamic false()
+       </code>
+       They are constants of the runtime, which is the class loader of generated class.
+     */
+    public static CallSite bootstrapConstant(MethodHandles.Lookup lookup, String name, MethodType type) {
+        final SmalltalkClassLoader classLoader = (SmalltalkClassLoader) lookup.lookupClass().getClassLoader();
+        return new ConstantCallSite(MethodHandles.constant(PrimObject.class, constant(classLoader, name)).asType(type));
+    }
+
+    private static PrimObject constant(SmalltalkClassLoader classLoader, String name) {
+        switch (name) {
+            case "nil":
+                return classLoader.nilInstance();
+            case "true":
+                return classLoader.trueInstance();
+            case "false":
+                return classLoader.falseInstance();
+            default:
+                throw new IllegalStateException("Unknown constant '" + name + "'.");
+        }
+    }
+
+    private LiteralSite(MethodType type, String literalType, Object value) {
+        super(type);
+        this.type = literalType;
+        this.value = value;
+        setTarget(RESOLVE.bindTo(this).asType(type));
+    }
+
+    private PrimObject resolve(PrimObject receiver) throws Throwable {
+        return publish(literal(receiver));
+    }
+
+    private synchronized PrimObject publish(PrimObject created) {
+        if (literal == null) {
+            literal = created;
+            setTarget(MethodHandles.dropArguments(MethodHandles.constant(PrimObject.class, literal), 0, PrimObject.class));
+        }
+        return literal;
+    }
+
+    private PrimObject literal(PrimObject receiver) throws Throwable {
+        switch (type) {
+            case "symbol":
+                return receiver.smalltalkSymbol(value);
+            case "string":
+                return receiver.smalltalkString(value);
+            case "integer":
+                return receiver.smalltalkInteger(value);
+            case "float":
+                return receiver.smalltalkFloat(value);
+            case "character":
+                return receiver.smalltalkCharacter(value);
+            case "array":
+                return (PrimObject) ((MethodHandle) value).invokeExact(receiver, receiver, (PrimContext) null);
+            default:
+                throw new IllegalStateException("Unknown literal type '" + type + "'.");
+        }
+    }
+
+    static {
+        try {
+            RESOLVE = MethodHandles.lookup().findVirtual(LiteralSite.class, "resolve",
+                    methodType(PrimObject.class, PrimObject.class));
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.core;
+
+import java.lang.invoke.SwitchPoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Cache of resolved method lookups of a runtime: (receiverClass, selector) -> (method, class where method was found),
+ * and switch points guarding inline caches of send sites (see SendSite). Each SmalltalkClassLoader has its own, so
+ * classes of a runtime are not held after the runtime is gone and methods added in one runtime don't invalidate
+ * send sites of another.
+ * Entries are grouped by selector so PrimClass.addMethod flushes only lookups of the added selector.
+ * Change of superclass may affect any lookup and flushes whole cache. It changes slot layout of instances too, so
+ * it also invalidates the switch point guarding instance variable sites of the runtime (see InstVarSite).
+ * Failed lookups (doesNotUnderstand:) are not cached.
+ */
+public final class MethodCache {
+
+    private final Map<Selector, Map<PrimClass, Entry>> entries = new ConcurrentHashMap<>();
+    private final Map<Selector, SwitchPoint> methodsUnchanged = new ConcurrentHashMap<>();
+    private SwitchPoint layoutUnchanged = new SwitchPoint();
+    private boolean layoutUnchangedInUse = false;
+
+    /* Lookup in cache of runtime receiverClass belongs to, classes not in a runtime yet are looked up uncached. */
+    static Entry lookup(PrimClass receiverClass, Selector selector) {
+        final MethodCache methodCache = receiverClass.methodCache();
+        if (methodCache != null)
+            return methodCache.lookupIn(receiverClass, selector);
+        return find(receiverClass, selector);
+    }
+
+    Entry lookupIn(PrimClass receiverClass, Selector selector) {
+        Map<PrimClass, Entry> bySelector = entries.get(selector);
+        if (bySelector == null) {
+            bySelector = new ConcurrentHashMap<>();
+            Map<PrimClass, Entry> existing = entries.putIfAbsent(selector, bySelector);
+            if (existing != null)
+                bySelector = existing;
+        }
+        Entry entry = bySelector.get(receiverClass);
+        if (entry == null) {
+            entry = find(receiverClass, selector);
+            if (entry == null)
+                return null;
+            bySelector.put(receiverClass, entry);
+        }
+        return entry;
+    }
+
+    private static Entry find(PrimClass receiverClass, Selector selector) {
+        PrimClass cls = PrimObject.findClassWithSelector(receiverClass, selector);
+        if (cls == null)
+            return null;
+        return new Entry(cls.methodFor(selector), cls);
+    }
+
+    /* Switch point valid until method with selector is added or class hierarchy changes. */
+    SwitchPoint switchPoint(Selector selector) {
+        final SwitchPoint switchPoint = methodsUnchanged.get(selector);
+        if (switchPoint != null)
+            return switchPoint;
+        return methodsUnchanged.computeIfAbsent(selector, s -> new SwitchPoint());
+    }
+
+    /* Called by PrimClass when method with given selector is added. */
+    void methodsChanged(Selector selector) {
+        entries.remove(selector);
+        final SwitchPoint changed = methodsUnchanged.remove(selector);
+        if (changed != null)
+            SwitchPoint.invalidateAll(new SwitchPoint[] { changed });
+    }
+
+    /* Called by PrimClass when superclass is changed. */
+    void methodsChanged() {
+        entries.clear();
+        final List<SwitchPoint> changed = new ArrayList<>();
+        for (Selector selector : methodsUnchanged.keySet()) {
+            final SwitchPoint switchPoint = methodsUnchanged.remove(selector);
+            if (switchPoint != null)
+                changed.add(switchPoint);
+        }
+        if (!changed.isEmpty())
+            SwitchPoint.invalidateAll(changed.toArray(new SwitchPoint[0]));
+    }
+
+    /* Switch point valid until class hierarchy of the runtime changes. */
+    public synchronized SwitchPoint layoutSwitchPoint() {
+        layoutUnchangedInUse = true;
+        return layoutUnchanged;
+    }
+
+    /* Called by PrimClass when superclass is changed. */
+    synchronized void layoutChanged() {
+        if (!layoutUnchangedInUse)
+            return;
+        final SwitchPoint changed = layoutUnchanged;
+        layoutUnchanged = new SwitchPoint();
+        layoutUnchangedInUse = false;
+        SwitchPoint.invalidateAll(new SwitchPoint[] { changed });
+    }
+
+    static final class Entry {
+        final PrimMethod method;
+        final PrimClass foundInClass;
+
+        Entry(PrimMethod method, PrimClass foundInClass) {
+            this.method = method;
+            this.foundInClass = foundInClass;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.core;
+
+import java.util.function.BiConsumer;
+
+/* Methods of a PrimClass. Open addressed hash table with linear probing keyed by Selector id.
+ * Selector ids are small sequential numbers so id itself is used as hash.
+ * Methods are looked up by many threads and added rarely, so table is copied on write: put() creates new table
+ * and publishes it by volatile write, get() reads the table once and takes no lock.
+ */
+class MethodDictionary {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private volatile Table table = new Table(new Selector[INITIAL_CAPACITY], new PrimMethod[INITIAL_CAPACITY], 0);
+
+    PrimMethod get(Selector selector) {
+        return table.get(selector);
+    }
+
+    boolean containsKey(Selector selector) {
+        return get(selector) != null;
+    }
+
+    synchronized void put(Selector selector, PrimMethod method) {
+        table = table.with(selector, method);
+    }
+
+    void forEach(BiConsumer<Selector, PrimMethod> action) {
+        table.forEach(action);
+    }
+
+    /* Immutable once published. */
+    private static final class Table {
+
+        private final Selector[] selectors;
+        private final PrimMethod[] methods;
+        private final int size;
+
+        Table(Selector[] selectors, PrimMethod[] methods, int size) {
+            this.selectors = selectors;
+            this.methods = methods;
+            this.size = size;
+        }
+
+        PrimMethod get(Selector selector) {
+            final Selector[] keys = selectors;
+            final int mask = keys.length - 1;
+            int index = selector.id() & mask;
+            Selector key;
+            while ((key = keys[index]) != null) {
+                if (key == selector)
+                    return methods[index];
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        void forEach(BiConsumer<Selector, PrimMethod> action) {
+            for (int i = 0; i < selectors.length; i++)
+                if (selectors[i] != null)
+                    action.accept(selectors[i], methods[i]);
+        }
+
+        // Answer copy of table with method put at selector.
+        Table with(Selector selector, PrimMethod method) {
+            final int capacity = (size + 1) * 4 > selectors.length * 3 ? selectors.length * 2 : selectors.length;
+            final Selector[] newSelectors;
+            final PrimMethod[] newMethods;
+            if (capacity == selectors.length) {
+                newSelectors = selectors.clone();
+                newMethods = methods.clone();
+            } else {
+                newSelectors = new Selector[capacity];
+                newMethods = new PrimMethod[capacity];
+                for (int i = 0; i < selectors.length; i++)
+                    if (selectors[i] != null)
+                        insert(newSelectors, newMethods, selectors[i], methods[i]);
+            }
+            final boolean added = insert(newSelectors, newMethods, selector, method);
+            return new Table(newSelectors, newMethods, added ? size + 1 : size);
+        }
+
+        // Answer true when selector was not present before.
+        private static boolean insert(Selector[] keys, PrimMethod[] values, Selector selector, PrimMethod method) {
+            final int mask = keys.length - 1;
+            int index = selector.id() & mask;
+            Selector key;
+            while ((key = keys[index]) != null) {
+                if (key == selector) {
+                    values[index] = method;
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+            keys[index] = selector;
+            values[index] = method;
+            return true;
+        }
+    }
+}
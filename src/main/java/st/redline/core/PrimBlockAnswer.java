@@ -1,15 +1,38 @@
 /* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
 package st.redline.core;
 
+/* Non-local return: '^' inside a block throws PrimBlockAnswer carrying the answer and the home context of the block.
+ * Methods which create answering blocks catch it and return the answer when they are its home (see answerFor()),
+ * other methods on the way let it through. It is used for control flow only, so it has no stack trace.
+ */
 public class PrimBlockAnswer extends RuntimeException {
 
     private final PrimObject answer;
+    private final PrimContext homeContext;
 
-    public PrimBlockAnswer(PrimObject answer) {
+    public PrimBlockAnswer(PrimObject answer, PrimContext homeContext) {
+        super("Block answer to context which is not active.", null, false, false);
         this.answer = answer;
+        this.homeContext = homeContext;
+    }
+
+    /* Called by '^' inside generated block method with block context. */
+    public static PrimBlockAnswer of(PrimObject answer, PrimContext context) {
+        return new PrimBlockAnswer(answer, context.homeContext());
     }
 
     public PrimObject answer() {
         return answer;
     }
+
+    public PrimContext homeContext() {
+        return homeContext;
+    }
+
+    /* Answer the answer when context is home context, otherwise rethrow to senders of context. */
+    public PrimObject answerFor(PrimContext context) {
+        if (homeContext != context)
+            throw this;
+        return answer;
+    }
 }
@@ -0,0 +1,57 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.core;
+
+/* Instance of Character holding its code point. Characters 0..CACHE_SIZE-1 are preallocated when the system
+ * is bootstrapped (see preallocate()), so they are unique as in other Smalltalks and creating them allocates nothing.
+ */
+public final class PrimCharacter extends PrimObject {
+
+    static final int CACHE_SIZE = 256;
+
+    private final int value;
+
+    PrimCharacter(PrimClass characterClass, int value) {
+        this.value = value;
+        selfClass(characterClass);
+    }
+
+    public static PrimCharacter valueOf(PrimClass characterClass, int value) {
+        if (value >= 0 && value < CACHE_SIZE)
+            return characterClass.characterCache()[value];
+        return new PrimCharacter(characterClass, value);
+    }
+
+    /* Create cached instances, called by Bootstrapper. */
+    public static void preallocate(PrimClass characterClass) {
+        characterClass.characterCache();
+    }
+
+    public int value() {
+        return value;
+    }
+
+    @Override
+    public Object javaValue() {
+        return value;
+    }
+
+    @Override
+    public void javaValue(Object object) {
+        throw new UnsupportedOperationException("Character value can't be changed.");
+    }
+
+    @Override
+    public String toString() {
+        return new String(Character.toChars(value));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PrimCharacter && ((PrimCharacter) other).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value;
+    }
+}
@@ -1,18 +1,27 @@
 /* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
 package st.redline.core;
 
-import java.util.*;
+import st.redline.classloader.SmalltalkClassLoader;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+import static java.lang.invoke.MethodType.methodType;
 import static st.redline.core.PrimSubclassMethod.PRIM_SUBCLASS_METHOD;
 
 public class PrimClass extends PrimObject {
 
     private final boolean meta;
     private final String name;
-    private PrimClass superclass;
-    private final Map<String, PrimMethod> methods = new HashMap<>();
-    private Set<String> instanceVariableNames;
+    private volatile PrimClass superclass;
+    private final MethodDictionary methods = new MethodDictionary();
+    private final String[] instanceVariableNames;
     private String category;
+    private Class<? extends PrimObject> instanceClass;
+    private MethodHandle instanceConstructor;
+    private volatile PrimSmallInteger[] smallIntegerCache;
+    private volatile PrimCharacter[] characterCache;
+    private SmalltalkClassLoader classLoader;
 
     public PrimClass() {
         this("", false);
@@ -33,16 +42,10 @@ public class PrimClass extends PrimObject {
     public PrimClass(String name, boolean isMeta, String[] instanceVariableNames, String category) {
         this.meta = isMeta;
         this.name = name;
-        this.instanceVariableNames = instanceVariableNames!=null ? toSet(instanceVariableNames) : Collections.emptySet();
+        this.instanceVariableNames = instanceVariableNames!=null ? instanceVariableNames.clone() : new String[0];
         this.category = category!=null ? category : "Unclassified";
     }
 
-    private static Set<String> toSet(String[] strings) {
-        final HashSet<String> result = new HashSet<>();
-        Collections.addAll(result, strings);
-        return result;
-    }
-
     @Override
     public String toString() {
         if (isMeta())
@@ -50,6 +53,23 @@ public class PrimClass extends PrimObject {
         return name;
     }
 
+    /* Class loader the class is defined by. Classes answer it for their instances, see PrimObject.classLoader(). */
+    public void classLoader(SmalltalkClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    protected SmalltalkClassLoader classLoader() {
+        if (classLoader != null)
+            return classLoader;
+        return super.classLoader();
+    }
+
+    // Dispatch caches of the runtime the class is defined in, none until class is added to a runtime.
+    MethodCache methodCache() {
+        return classLoader != null ? classLoader.methodCache() : null;
+    }
+
     public boolean isMeta() {
         return meta;
     }
@@ -59,14 +79,27 @@ public class PrimClass extends PrimObject {
     }
 
     public boolean includesSelector(String selector) {
+        return includesSelector(Selector.of(selector));
+    }
+
+    public boolean includesSelector(Selector selector) {
         return methods.containsKey(selector);
     }
 
     public void superclass(PrimClass superclass) {
         this.superclass = superclass;
+        final MethodCache methodCache = methodCache();
+        if (methodCache != null) {
+            methodCache.methodsChanged();
+            methodCache.layoutChanged();
+        }
     }
 
     public PrimMethod methodFor(String selector) {
+        return methodFor(Selector.of(selector));
+    }
+
+    public PrimMethod methodFor(Selector selector) {
         return methods.get(selector);
     }
 
@@ -74,35 +107,118 @@ public class PrimClass extends PrimObject {
         return superclass;
     }
 
+    String category() {
+        return category;
+    }
+
+    MethodDictionary methods() {
+        return methods;
+    }
+
     public void addMethod(String selector, PrimMethod method) {
+        addMethod(Selector.of(selector), method);
+    }
+
+    /* Method is published before dispatch caches are invalidated, so sends looking up after invalidation find it. */
+    public void addMethod(Selector selector, PrimMethod method) {
         methods.put(selector, method);
+        final MethodCache methodCache = methodCache();
+        if (methodCache != null)
+            methodCache.methodsChanged(selector);
     }
 
     public PrimObject primitiveNew() {
-        PrimObject object = new PrimObject();
+        PrimObject object = newInstance();
         object.selfClass(this);
         return object;
     }
 
     public PrimObject primitiveNew(PrimObject indexableVariables) {
         //Answer an instance of the receiver (which is a class) with the number of indexable variables
-        PrimObject object = new PrimObject();
+        PrimObject object = newInstance();
         object.selfClass(this);
         return object;
     }
 
-    //Check if var is valid field name including superclass fields.
-    public boolean hasInstanceVar(String var) {
-        if (instanceVariableNames.contains(var)) {
-            return true;
+    private PrimObject newInstance() {
+        if (instanceConstructor == null)
+            return new PrimObject();
+        try {
+            return (PrimObject) instanceConstructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
         }
-        else {
-            if (superclass != null) {
-                return superclass.hasInstanceVar(var);
-            }
-            else {
-                return false;
-            }
+    }
+
+    /* JVM class of instances, generated when Smalltalk classes are compiled to JVM classes with fields
+       (see SmalltalkClassLoader.generatesInstanceClasses()). Null when instances are plain PrimObjects.
+    */
+    public Class<? extends PrimObject> instanceClass() {
+        return instanceClass;
+    }
+
+    public void instanceClass(Class<? extends PrimObject> instanceClass) {
+        try {
+            this.instanceConstructor = MethodHandles.publicLookup()
+                    .findConstructor(instanceClass, methodType(void.class))
+                    .asType(methodType(PrimObject.class));
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
         }
+        this.instanceClass = instanceClass;
+    }
+
+    // Preallocated small integers, used only by Integer class.
+    PrimSmallInteger[] smallIntegerCache() {
+        PrimSmallInteger[] cache = smallIntegerCache;
+        if (cache == null) {
+            cache = new PrimSmallInteger[PrimSmallInteger.CACHE_HIGH - PrimSmallInteger.CACHE_LOW + 1];
+            for (int i = 0; i < cache.length; i++)
+                cache[i] = new PrimSmallInteger(this, PrimSmallInteger.CACHE_LOW + i);
+            smallIntegerCache = cache;
+        }
+        return cache;
+    }
+
+    // Preallocated characters, used only by Character class.
+    PrimCharacter[] characterCache() {
+        PrimCharacter[] cache = characterCache;
+        if (cache == null) {
+            cache = new PrimCharacter[PrimCharacter.CACHE_SIZE];
+            for (int i = 0; i < cache.length; i++)
+                cache[i] = new PrimCharacter(this, i);
+            characterCache = cache;
+        }
+        return cache;
+    }
+
+    public String[] instanceVariableNames() {
+        return instanceVariableNames.clone();
+    }
+
+    //Check if var is valid field name including superclass fields.
+    public boolean hasInstanceVar(String var) {
+        return indexOfInstanceVar(var) >= 0;
+    }
+
+    /* Slot layout of instances: inherited instance variables come first, followed by variables
+       declared in this class. Answer slot index of variable or -1 if there is no such variable.
+    */
+    public int indexOfInstanceVar(String var) {
+        for (int i = instanceVariableNames.length - 1; i >= 0; i--)
+            if (instanceVariableNames[i].equals(var))
+                return inheritedInstSize() + i;
+        return superclass != null ? superclass.indexOfInstanceVar(var) : -1;
+    }
+
+    // Number of named instance variables including superclass fields.
+    public int instSize() {
+        return inheritedInstSize() + instanceVariableNames.length;
+    }
+
+    private int inheritedInstSize() {
+        return superclass != null ? superclass.instSize() : 0;
     }
 }
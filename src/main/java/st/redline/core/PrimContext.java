@@ -1,27 +1,69 @@
 /* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
 package st.redline.core;
 
-import st.redline.classloader.*;
-
+/* Activation record of a method or block. Contexts are created for every send, so they are kept cheap:
+ * up to MAX_FIELD_ARGUMENTS arguments are held in fields rather than in an array, and temporaries
+ * array is not filled with nil - empty temporary reads as nil (see temporaryAt()).
+ */
 public class PrimContext {
 
+    static final int MAX_FIELD_ARGUMENTS = 3;
+
     private final PrimObject receiver;
     private final PrimObject lookupClass;
-    private final String selector;
-    private final PrimObject[] arguments;
+    private final Selector selector;
+    private final int argumentCount;
+    private final PrimObject argument0;
+    private final PrimObject argument1;
+    private final PrimObject argument2;
+    private PrimObject[] arguments;
     private PrimObject[] temporaries;
     private PrimContext homeContext;
     private PrimContext outerContext;
 
     public PrimContext(PrimObject receiver) {
-        this(receiver, null, null, null);
+        this(receiver, null, (Selector) null, (PrimObject[]) null);
     }
 
     public PrimContext(PrimObject receiver, PrimObject lookupClass, String selector, PrimObject[] arguments) {
+        this(receiver, lookupClass, selector != null ? Selector.of(selector) : null, arguments);
+    }
+
+    public PrimContext(PrimObject receiver, PrimObject lookupClass, Selector selector, PrimObject[] arguments) {
         this.receiver = receiver;
         this.lookupClass = lookupClass;
         this.selector = selector;
         this.arguments = arguments;
+        this.argumentCount = arguments != null ? arguments.length : 0;
+        this.argument0 = argumentCount > 0 ? arguments[0] : null;
+        this.argument1 = argumentCount > 1 ? arguments[1] : null;
+        this.argument2 = argumentCount > 2 ? arguments[2] : null;
+    }
+
+    public PrimContext(PrimObject receiver, PrimObject lookupClass, Selector selector) {
+        this(receiver, lookupClass, selector, 0, null, null, null);
+    }
+
+    public PrimContext(PrimObject receiver, PrimObject lookupClass, Selector selector, PrimObject argument0) {
+        this(receiver, lookupClass, selector, 1, argument0, null, null);
+    }
+
+    public PrimContext(PrimObject receiver, PrimObject lookupClass, Selector selector, PrimObject argument0, PrimObject argument1) {
+        this(receiver, lookupClass, selector, 2, argument0, argument1, null);
+    }
+
+    public PrimContext(PrimObject receiver, PrimObject lookupClass, Selector selector, PrimObject argument0, PrimObject argument1, PrimObject argument2) {
+        this(receiver, lookupClass, selector, 3, argument0, argument1, argument2);
+    }
+
+    private PrimContext(PrimObject receiver, PrimObject lookupClass, Selector selector, int argumentCount, PrimObject argument0, PrimObject argument1, PrimObject argument2) {
+        this.receiver = receiver;
+        this.lookupClass = lookupClass;
+        this.selector = selector;
+        this.argumentCount = argumentCount;
+        this.argument0 = argument0;
+        this.argument1 = argument1;
+        this.argument2 = argument2;
     }
 
     public PrimObject receiver() {
@@ -29,39 +71,46 @@ public class PrimContext {
     }
 
     public String selector() {
-        return selector;
+        return selector != null ? selector.name() : null;
     }
 
+    /* Answer arguments as array. Array is created on demand when arguments are held in fields. */
     public PrimObject[] arguments() {
+        if (arguments == null) {
+            final PrimObject[] array = new PrimObject[argumentCount];
+            for (int i = 0; i < argumentCount; i++)
+                array[i] = argumentAt(i);
+            arguments = array;
+        }
         return arguments;
     }
 
     public void initTemporaries(int count) {
         temporaries = new PrimObject[count];
-        PrimObject nil = nil();
-        for (int i = 0; i < count; i++)
-            temporaries[i] = nil;
     }
 
     private PrimObject nil() {
-        return classLoader().nilInstance();
-    }
-
-    private SmalltalkClassLoader classLoader() {
-        return (SmalltalkClassLoader) Thread.currentThread().getContextClassLoader();
+        return receiver.referenceNil();
     }
 
     public PrimObject[] selectorAndArguments() {
         PrimObject selectorObject = new PrimObject();
-        selectorObject.javaValue(selector);
-        PrimObject[] selectorAndArguments = new PrimObject[arguments.length + 1];
+        selectorObject.javaValue(selector());
+        PrimObject[] selectorAndArguments = new PrimObject[argumentCount + 1];
         selectorAndArguments[0] = selectorObject;
-        System.arraycopy(arguments, 0, selectorAndArguments, 1, arguments.length);
+        for (int i = 0; i < argumentCount; i++)
+            selectorAndArguments[i + 1] = argumentAt(i);
         return selectorAndArguments;
     }
 
     public PrimObject argumentAt(int index) {
-        return arguments[index];
+        switch (index) {
+            case 0: if (argumentCount > 0) return argument0; break;
+            case 1: if (argumentCount > 1) return argument1; break;
+            case 2: if (argumentCount > 2) return argument2; break;
+            default: if (index < argumentCount) return arguments[index];
+        }
+        throw new ArrayIndexOutOfBoundsException(index);
     }
 
     public PrimObject outerArgumentAt(int index) {
@@ -77,7 +126,8 @@ public class PrimContext {
     }
 
     public PrimObject temporaryAt(int index) {
-        return temporaries[index];
+        final PrimObject temporary = temporaries[index];
+        return temporary != null ? temporary : nil();
     }
 
     public PrimObject homeTemporaryAt(int index) {
@@ -89,16 +139,10 @@ public class PrimContext {
     }
 
     public PrimObject instVarAt(String var) {
-        if (!receiver.selfClass().hasInstanceVar(var)) {
-            throw new FieldNotFoundException("Class "+receiver.selfClass().name()+" doesn't have field "+var);
-        }
         return receiver.getInstanceVar(var);
     }
 
     public void instVarAtPut(String var, PrimObject object) {
-        if (!receiver.selfClass().hasInstanceVar(var)) {
-            throw new FieldNotFoundException("Class "+receiver.selfClass().name()+" doesn't have field "+var);
-        }
         receiver.setInstanceVar(var, object);
     }
 
@@ -0,0 +1,119 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.core;
+
+import java.math.BigInteger;
+
+/* Instance of LargePositiveInteger or LargeNegativeInteger holding BigInteger value. Large integers are
+ * created only for values out of SmallInteger range; results of arithmetic that fit into SmallInteger are
+ * answered as PrimSmallInteger (see normalize()).
+ * Static methods implement integer arithmetic for any combination of small and large integers and answer
+ * null when receiver or argument is not an integer.
+ */
+public final class PrimLargeInteger extends PrimObject {
+
+    private final BigInteger value;
+
+    PrimLargeInteger(PrimClass largeIntegerClass, BigInteger value) {
+        this.value = value;
+        selfClass(largeIntegerClass);
+    }
+
+    public BigInteger value() {
+        return value;
+    }
+
+    @Override
+    public Object javaValue() {
+        return value;
+    }
+
+    @Override
+    public void javaValue(Object object) {
+        throw new UnsupportedOperationException("LargeInteger value can't be changed.");
+    }
+
+    @Override
+    public String toString() {
+        return value.toString();
+    }
+
+    /* Answer SmallInteger when value fits, otherwise LargePositiveInteger or LargeNegativeInteger. */
+    static PrimObject normalize(PrimObject receiver, BigInteger value) {
+        if (value.bitLength() < 32) {
+            return PrimSmallInteger.valueOf(receiver.integerClass(), value.intValue());
+        }
+        return new PrimLargeInteger(receiver.resolveClass(value.signum() < 0 ? "LargeNegativeInteger" : "LargePositiveInteger"), value);
+    }
+
+    static BigInteger bigIntegerValue(PrimObject object) {
+        if (object instanceof PrimSmallInteger)
+            return BigInteger.valueOf(((PrimSmallInteger) object).value());
+        if (object instanceof PrimLargeInteger)
+            return ((PrimLargeInteger) object).value;
+        return null;
+    }
+
+    static boolean isInteger(PrimObject object) {
+        return object instanceof PrimSmallInteger || object instanceof PrimLargeInteger;
+    }
+
+    public static PrimObject add(PrimObject receiver, PrimObject argument) {
+        if (!isInteger(receiver) || !isInteger(argument))
+            return null;
+        return normalize(receiver, bigIntegerValue(receiver).add(bigIntegerValue(argument)));
+    }
+
+    public static PrimObject subtract(PrimObject receiver, PrimObject argument) {
+        if (!isInteger(receiver) || !isInteger(argument))
+            return null;
+        return normalize(receiver, bigIntegerValue(receiver).subtract(bigIntegerValue(argument)));
+    }
+
+    public static PrimObject multiply(PrimObject receiver, PrimObject argument) {
+        if (!isInteger(receiver) || !isInteger(argument))
+            return null;
+        return normalize(receiver, bigIntegerValue(receiver).multiply(bigIntegerValue(argument)));
+    }
+
+    // Quotient rounded towards negative infinity. Argument should not be zero.
+    public static PrimObject floorDivide(PrimObject receiver, PrimObject argument) {
+        if (!isInteger(receiver) || !isInteger(argument))
+            return null;
+        return normalize(receiver, floorDivide(bigIntegerValue(receiver), bigIntegerValue(argument)));
+    }
+
+    // Remainder of quotient rounded towards negative infinity. Argument should not be zero.
+    public static PrimObject floorModulo(PrimObject receiver, PrimObject argument) {
+        if (!isInteger(receiver) || !isInteger(argument))
+            return null;
+        final BigInteger dividend = bigIntegerValue(receiver);
+        final BigInteger divisor = bigIntegerValue(argument);
+        return normalize(receiver, dividend.subtract(floorDivide(dividend, divisor).multiply(divisor)));
+    }
+
+    private static BigInteger floorDivide(BigInteger dividend, BigInteger divisor) {
+        final BigInteger[] quotientAndRemainder = dividend.divideAndRemainder(divisor);
+        if (quotientAndRemainder[1].signum() != 0 && quotientAndRemainder[1].signum() != divisor.signum())
+            return quotientAndRemainder[0].subtract(BigInteger.ONE);
+        return quotientAndRemainder[0];
+    }
+
+    public static PrimObject gcd(PrimObject receiver, PrimObject argument) {
+        if (!isInteger(receiver) || !isInteger(argument))
+            return null;
+        return normalize(receiver, bigIntegerValue(receiver).gcd(bigIntegerValue(argument)));
+    }
+
+    public static PrimObject bitAnd(PrimObject receiver, PrimObject argument) {
+        if (!isInteger(receiver) || !isInteger(argument))
+            return null;
+        return normalize(receiver, bigIntegerValue(receiver).and(bigIntegerValue(argument)));
+    }
+
+    // Answer comparison of receiver and argument as in Comparable, or null when they are not integers.
+    public static Integer compare(PrimObject receiver, PrimObject argument) {
+        if (!isInteger(receiver) || !isInteger(argument))
+            return null;
+        return bigIntegerValue(receiver).compareTo(bigIntegerValue(argument));
+    }
+}
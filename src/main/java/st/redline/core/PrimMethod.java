@@ -2,12 +2,25 @@
 package st.redline.core;
 
 public class PrimMethod extends PrimObject {
+
+    // Static method the lambda of compiled method calls, null for primitive methods.
+    private final String implementationClass;
+    private final String implementationName;
+
     public PrimMethod() {
         super();
+        this.implementationClass = null;
+        this.implementationName = null;
     }
 
     public PrimMethod(LambdaBlock lambdaBlock) {
+        this(lambdaBlock, null, null);
+    }
+
+    public PrimMethod(LambdaBlock lambdaBlock, String implementationClass, String implementationName) {
         this.javaValue(lambdaBlock);
+        this.implementationClass = implementationClass;
+        this.implementationName = implementationName;
     }
 
     @Override
@@ -16,6 +29,14 @@ public class PrimMethod extends PrimObject {
         return "(PrimMethod) " + (value!=null ? value.toString() : "null");
     }
 
+    String implementationClass() {
+        return implementationClass;
+    }
+
+    String implementationName() {
+        return implementationName;
+    }
+
     protected PrimObject invoke(PrimObject receiver, PrimContext context) {
         // We send receiver as first _and_ second argument as LambdaBlock's are static
         // and we need receiver in argument slot 1
@@ -14,12 +14,12 @@ public class PrimNil extends PrimClass {
     }
 
     @Override
-    public boolean includesSelector(String selector) {
+    public boolean includesSelector(Selector selector) {
         return true;
     }
 
     @Override
-    public PrimMethod methodFor(String selector) {
+    public PrimMethod methodFor(Selector selector) {
         return PRIM_DOES_NOT_UNDERSTAND;
     }
 }
@@ -5,10 +5,10 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import st.redline.classloader.SmalltalkClassLoader;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 
 import static st.redline.compiler.visitor.SmalltalkGeneratingVisitor.DEFAULT_IMPORTED_PACKAGE;
 import static st.redline.core.PrimDoesNotUnderstand.*;
@@ -16,10 +16,11 @@ import static st.redline.core.PrimSubclassMethod.PRIM_SUBCLASS_METHOD;
 
 public class PrimObject {
     private static final Logger log = LogManager.getLogger(PrimObject.class);
+    private static final PrimObject[] NO_ARGUMENTS = new PrimObject[0];
 
     private PrimClass selfClass;
     private Object javaValue;
-    private final Map<String, PrimObject> instanceVars = new HashMap<>();
+    private PrimObject[] slots;
 
     @Override
     public String toString() {
@@ -82,30 +83,8 @@ public class PrimObject {
         return instanceOfWith("BlockClosure", new Object[] { value, homeContext });
     }
 
-    public PrimObject smalltalkBlockAnswer(Object value, PrimContext homeContext, String answerClassName) {
-//        System.out.println("** smalltalkBlockAnswer " + value + " from " + answerClassName);
-        return instanceOfWith("BlockClosure", new Object[] { throwingAnswer(value, answerClassName), homeContext });
-    }
-
-    private LambdaBlock throwingAnswer(Object value, String answerClassName) {
-        return (self, receiver, context) -> {
-            PrimObject answer = ((LambdaBlock) value).apply(self, receiver, context);
-            PrimBlockAnswer blockAnswer;
-            try {
-                blockAnswer = (PrimBlockAnswer)
-                        classLoader()
-                                .loadClass(answerClassName)
-                                .getConstructor(PrimObject.class)
-                                .newInstance(answer);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-            throw blockAnswer;
-        };
-    }
-
     public PrimObject smalltalkCharacter(Object value) {
-        Integer intValue = null;
+        int intValue = 0;
         if (value instanceof String) {
             intValue = ((String) value).codePointAt(0);
         }
@@ -116,10 +95,7 @@ public class PrimObject {
             intValue = (Integer) value;
         }
 
-        final PrimObject charObject = new PrimObject();
-        charObject.selfClass(resolveClass("Character"));
-        charObject.javaValue(intValue);
-        return charObject;
+        return PrimCharacter.valueOf(resolveClass("Character"), intValue);
     }
 
     public PrimObject smalltalkArray(Object ignored) {
@@ -133,12 +109,27 @@ public class PrimObject {
     }
 
     public PrimObject smalltalkInteger(Object value) {
-        return instanceOfWith("Integer", Integer.valueOf(String.valueOf(value)));
+        if (value instanceof Integer)
+            return smalltalkInteger(((Integer) value).intValue());
+        // Literals are passed as decimal strings, parse the ones fitting int without BigInteger.
+        if (value instanceof String && ((String) value).length() < 10)
+            return smalltalkInteger(Integer.parseInt((String) value));
+        return PrimLargeInteger.normalize(this, new BigInteger(String.valueOf(value)));
     }
 
-    public PrimMethod smalltalkMethod(Object value) {
+    public PrimObject smalltalkInteger(int value) {
+        return PrimSmallInteger.valueOf(integerClass(), value);
+    }
+
+    // Integer receiver answers its own class to save resolving the class name.
+    PrimClass integerClass() {
+        return this instanceof PrimSmallInteger ? selfClass : resolveClass("Integer");
+    }
+
+    /* Method lambda is implemented by static method implementationName of class implementationClass. */
+    public PrimMethod smalltalkMethod(Object value, String implementationClass, String implementationName) {
         //System.out.println("** smalltalkMethod " + value);
-        final PrimMethod method = new PrimMethod((LambdaBlock) value);
+        final PrimMethod method = new PrimMethod((LambdaBlock) value, implementationClass, implementationName);
         method.selfClass(resolveClass("CompiledMethod"));
         return method;
     }
@@ -147,16 +138,18 @@ public class PrimObject {
         return instanceOfWith("String", value);
     }
 
-    public PrimObject smalltalkSymbol(Object value) {
-        return instanceOfWith("Symbol", value);
+    public PrimObject smalltalkFloat(Object value) {
+        return instanceOfWith("Float", value instanceof Double ? value : Double.valueOf(String.valueOf(value)));
+    }
 
-//        String symbol = (String) javaValue;
-//        SmalltalkClassLoader smalltalkClassLoader = classLoader();
-//        if (smalltalkClassLoader.isInternedSymbol(symbol))
-//            return smalltalkClassLoader.internedSymbolAt(symbol);
-//        PrimObject symbolObject = instanceOfWith("Symbol", symbol);
-//        smalltalkClassLoader.internSymbolAtPut(symbol, symbolObject);
-//        return symbolObject;
+    /* Answer interned symbol, so equal symbols are identical. */
+    public PrimObject smalltalkSymbol(Object value) {
+        final String symbol = (String) value;
+        final SmalltalkClassLoader smalltalkClassLoader = classLoader();
+        final PrimObject symbolObject = smalltalkClassLoader.internedSymbolAt(symbol);
+        if (symbolObject != null)
+            return symbolObject;
+        return smalltalkClassLoader.internSymbolAtPut(symbol, instanceOfWith("Symbol", symbol));
     }
 
     protected PrimObject smalltalkBoolean(boolean value) {
@@ -201,8 +194,16 @@ public class PrimObject {
         classLoader().importAll(packageName);
     }
 
+    /* Class loader is the runtime object belongs to. Objects reach it through their class, objects of generated
+       classes before their class is set (during construction) through the JVM class loader of their class.
+     */
     protected SmalltalkClassLoader classLoader() {
-        return (SmalltalkClassLoader) Thread.currentThread().getContextClassLoader();
+        if (selfClass != null)
+            return selfClass.classLoader();
+        final ClassLoader classLoader = getClass().getClassLoader();
+        if (classLoader instanceof SmalltalkClassLoader)
+            return (SmalltalkClassLoader) classLoader;
+        throw new IllegalStateException("Object of " + getClass().getName() + " has no class, so it has no runtime.");
     }
 
     protected PrimObject sendMessages(PrimObject receiver, PrimContext context) {
@@ -217,12 +218,12 @@ public class PrimObject {
 
     public PrimObject perform(String selector) {
 //        System.out.println("** perform(" + selector + ") " + this);
-        return perform0(selector);
+        return perform0(selector, NO_ARGUMENTS);
     }
 
     public PrimObject superPerform(String selector) {
 //        System.out.println("** superPerform(" + selector + ") " + this);
-        return perform0s(selector);
+        return perform0s(selector, NO_ARGUMENTS);
     }
 
     public PrimObject perform(PrimObject arg1, String selector) {
@@ -314,25 +315,25 @@ public class PrimObject {
     }
 
     protected PrimObject perform0(String selector, PrimObject ... arguments) {
-        return perform0(selfClass, selector, arguments);
+        return perform0(selfClass, Selector.of(selector), arguments);
     }
 
     protected PrimObject perform0s(String selector, PrimObject ... arguments) {
-        return perform0(selfClass.superclass(), selector, arguments);
+        return perform0(selfClass.superclass(), Selector.of(selector), arguments);
     }
 
-    protected PrimObject perform0(PrimClass foundInClass, String selector, PrimObject ... arguments) {
-        PrimClass cls = findClassWithSelector(foundInClass, selector);
+    protected PrimObject perform0(PrimClass foundInClass, Selector selector, PrimObject ... arguments) {
+        MethodCache.Entry found = MethodCache.lookup(foundInClass, selector);
 
-        if (cls == null) {
-            return this.perform0(doesNotUnderstand_SELECTOR, this.smalltalkString(selector));
+        if (found == null) {
+            return this.perform0(doesNotUnderstand_SELECTOR, this.smalltalkString(selector.name()));
         }
         else {
-            return apply(cls.methodFor(selector), cls, selector, arguments);
+            return apply(found.method, found.foundInClass, selector, arguments);
         }
     }
 
-    private PrimClass findClassWithSelector(PrimClass cls, String selector) {
+    static PrimClass findClassWithSelector(PrimClass cls, Selector selector) {
         while (!cls.includesSelector(selector)) {
             cls = cls.superclass();
             if (cls == null) {
@@ -343,23 +344,70 @@ public class PrimObject {
     }
 
     public PrimObject getInstanceVar(String varName) {
-        final PrimObject value = this.instanceVars.get(varName);
-        if (value==null) {
-            return referenceNil();
-        }
-        else {
-            return value;
-        }
+        return slotAt(indexOfInstanceVar(varName));
     }
 
     public void setInstanceVar(String varName, PrimObject value) {
-        this.instanceVars.put(varName, value);
+        slotAtPut(indexOfInstanceVar(varName), value);
+    }
+
+    private int indexOfInstanceVar(String varName) {
+        final int index = selfClass.indexOfInstanceVar(varName);
+        if (index < 0)
+            throw new FieldNotFoundException("Class "+selfClass.name()+" doesn't have field "+varName);
+        return index;
+    }
+
+    /* Instance variables are stored in slots laid out by PrimClass.indexOfInstanceVar().
+       Slots array is allocated on first store, empty slot means nil.
+    */
+    public PrimObject slotAt(int index) {
+        final PrimObject[] slots = this.slots;
+        if (slots == null || index >= slots.length || slots[index] == null)
+            return referenceNil();
+        return slots[index];
+    }
+
+    // Slots as they are, used by ImageSnapshot.
+    PrimObject[] slots() {
+        return slots;
+    }
+
+    void slots(PrimObject[] slots) {
+        this.slots = slots;
+    }
+
+    public void slotAtPut(int index, PrimObject value) {
+        if (slots == null || index >= slots.length)
+            slots = Arrays.copyOf(slots != null ? slots : new PrimObject[0], Math.max(index + 1, selfClass.instSize()));
+        slots[index] = value;
+    }
+
+    protected PrimObject apply(PrimMethod method, PrimClass foundInClass, Selector selector, PrimObject ... arguments) {
+        return apply(method, foundInClass, selector, new PrimContext(this, foundInClass, selector, arguments));
     }
 
-    protected PrimObject apply(PrimMethod method, PrimClass foundInClass, String selector, PrimObject ... arguments) {
+    /* Sends with up to PrimContext.MAX_FIELD_ARGUMENTS arguments are applied without arguments array. */
+    protected PrimObject apply(PrimMethod method, PrimClass foundInClass, Selector selector) {
+        return apply(method, foundInClass, selector, new PrimContext(this, foundInClass, selector));
+    }
+
+    protected PrimObject apply(PrimMethod method, PrimClass foundInClass, Selector selector, PrimObject argument0) {
+        return apply(method, foundInClass, selector, new PrimContext(this, foundInClass, selector, argument0));
+    }
+
+    protected PrimObject apply(PrimMethod method, PrimClass foundInClass, Selector selector, PrimObject argument0, PrimObject argument1) {
+        return apply(method, foundInClass, selector, new PrimContext(this, foundInClass, selector, argument0, argument1));
+    }
+
+    protected PrimObject apply(PrimMethod method, PrimClass foundInClass, Selector selector, PrimObject argument0, PrimObject argument1, PrimObject argument2) {
+        return apply(method, foundInClass, selector, new PrimContext(this, foundInClass, selector, argument0, argument1, argument2));
+    }
+
+    private PrimObject apply(PrimMethod method, PrimClass foundInClass, Selector selector, PrimContext context) {
         log.trace("** apply: #{} found in {} to {}", selector, foundInClass, this);
-        PrimObject result = method.invoke(this, new PrimContext(this, foundInClass, selector, arguments));
-        log.trace("** result: {}", String.valueOf(result));
+        PrimObject result = method.invoke(this, context);
+        log.trace("** result: {}", result);
         return result;
     }
 
@@ -414,58 +462,131 @@ public class PrimObject {
         return theClass;
     }
 
+    /* Implementation of "value:" method of Character class */
+    public PrimObject primitive170(PrimContext context) {
+        final PrimObject argument = context.argumentAt(0);
+        if (!(argument instanceof PrimSmallInteger))
+            return perform("primitiveFailed");
+        return PrimCharacter.valueOf((PrimClass) this, ((PrimSmallInteger) argument).value());
+    }
+
+    /* Implementation of "asInteger" method of Character */
+    public PrimObject primitive171(PrimContext context) {
+        return smalltalkInteger(((PrimCharacter) this).value());
+    }
+
     /* Implementation of "<" method of Integer */
     public PrimObject primitive350(PrimContext context) {
-        final Integer value = (Integer) this.javaValue;
-        final PrimObject argument = context.argumentAt(0);
-        final PrimClass argClass = argument.selfClass();
-        if (argClass.equals(resolveObject("Integer"))) {
-            Integer argValue = (Integer) context.argumentJavaValueAt(0);
-            return smalltalkBoolean(value < argValue);
-        }
-        else {
-            //Converet types using next smalltalk code:
-            // <code> (aNumber adaptInteger: self) < aNumber adaptToInteger </code>
-            PrimObject leftOperand  = argument.perform0("adaptInteger", this);
-            PrimObject rightOperand = argument.perform0("adaptInteger");
-            return leftOperand.perform0("<", rightOperand);
-        }
+        final PrimObject result = PrimSmallInteger.lessThan(this, context.argumentAt(0));
+        if (result != null)
+            return result;
+        final Integer comparison = PrimLargeInteger.compare(this, context.argumentAt(0));
+        return comparison != null ? smalltalkBoolean(comparison < 0) : adaptAndPerform("<", context.argumentAt(0));
     }
 
     /* Implementation of "=" method of Integer */
     public PrimObject primitive351(PrimContext context) {
-        final Integer value = (Integer) this.javaValue;
-        final PrimObject argument = context.argumentAt(0);
-        final PrimClass argClass = argument.selfClass();
-        if (argClass.equals(resolveObject("Integer"))) {
-            Integer argValue = (Integer) context.argumentJavaValueAt(0);
-            return smalltalkBoolean(value.equals(argValue));
-        }
-        else {
-            //Converet types using next smalltalk code:
-            // <code> (aNumber adaptInteger: self) = aNumber adaptToInteger </code>
-            PrimObject leftOperand  = argument.perform0("adaptInteger", this);
-            PrimObject rightOperand = argument.perform0("adaptInteger");
-            return leftOperand.perform0("=", rightOperand);
-        }
+        final PrimObject result = PrimSmallInteger.equal(this, context.argumentAt(0));
+        if (result != null)
+            return result;
+        final Integer comparison = PrimLargeInteger.compare(this, context.argumentAt(0));
+        return comparison != null ? smalltalkBoolean(comparison == 0) : adaptAndPerform("=", context.argumentAt(0));
     }
 
     /* Implementation of ">" method of Integer */
     public PrimObject primitive352(PrimContext context) {
-        final Integer value = (Integer) this.javaValue;
-        final PrimObject argument = context.argumentAt(0);
-        final PrimClass argClass = argument.selfClass();
-        if (argClass.equals(resolveObject("Integer"))) {
-            Integer argValue = (Integer) context.argumentJavaValueAt(0);
-            return smalltalkBoolean(value > argValue);
-        }
-        else {
-            //Converet types using next smalltalk code:
-            // <code> (aNumber adaptInteger: self) > aNumber adaptToInteger </code>
-            PrimObject leftOperand  = argument.perform0("adaptInteger", this);
-            PrimObject rightOperand = argument.perform0("adaptInteger");
-            return leftOperand.perform0(">", rightOperand);
-        }
+        final PrimObject result = PrimSmallInteger.greaterThan(this, context.argumentAt(0));
+        if (result != null)
+            return result;
+        final Integer comparison = PrimLargeInteger.compare(this, context.argumentAt(0));
+        return comparison != null ? smalltalkBoolean(comparison > 0) : adaptAndPerform(">", context.argumentAt(0));
+    }
+
+    /* Implementation of "+" method of Integer. Overflow answers LargePositiveInteger or LargeNegativeInteger. */
+    public PrimObject primitive353(PrimContext context) {
+        PrimObject result = PrimSmallInteger.add(this, context.argumentAt(0));
+        if (result == null)
+            result = PrimLargeInteger.add(this, context.argumentAt(0));
+        return result != null ? result : adaptAndPerform("+", context.argumentAt(0));
+    }
+
+    /* Implementation of "-" method of Integer */
+    public PrimObject primitive354(PrimContext context) {
+        PrimObject result = PrimSmallInteger.subtract(this, context.argumentAt(0));
+        if (result == null)
+            result = PrimLargeInteger.subtract(this, context.argumentAt(0));
+        return result != null ? result : adaptAndPerform("-", context.argumentAt(0));
+    }
+
+    /* Implementation of "*" method of Integer */
+    public PrimObject primitive355(PrimContext context) {
+        PrimObject result = PrimSmallInteger.multiply(this, context.argumentAt(0));
+        if (result == null)
+            result = PrimLargeInteger.multiply(this, context.argumentAt(0));
+        return result != null ? result : adaptAndPerform("*", context.argumentAt(0));
+    }
+
+    /* Implementation of "<=" method of Integer */
+    public PrimObject primitive356(PrimContext context) {
+        final PrimObject result = PrimSmallInteger.lessOrEqual(this, context.argumentAt(0));
+        if (result != null)
+            return result;
+        final Integer comparison = PrimLargeInteger.compare(this, context.argumentAt(0));
+        return comparison != null ? smalltalkBoolean(comparison <= 0) : adaptAndPerform("<=", context.argumentAt(0));
+    }
+
+    /* Implementation of ">=" method of Integer */
+    public PrimObject primitive357(PrimContext context) {
+        final PrimObject result = PrimSmallInteger.greaterOrEqual(this, context.argumentAt(0));
+        if (result != null)
+            return result;
+        final Integer comparison = PrimLargeInteger.compare(this, context.argumentAt(0));
+        return comparison != null ? smalltalkBoolean(comparison >= 0) : adaptAndPerform(">=", context.argumentAt(0));
+    }
+
+    /* Implementation of "//" method of Integer, quotient rounded towards negative infinity */
+    public PrimObject primitive358(PrimContext context) {
+        if (isZero(context.argumentAt(0)))
+            return perform0("error:", smalltalkString("division by 0"));
+        final PrimObject result = PrimLargeInteger.floorDivide(this, context.argumentAt(0));
+        return result != null ? result : adaptAndPerform("//", context.argumentAt(0));
+    }
+
+    /* Implementation of "\\" method of Integer, modulo rounded towards negative infinity */
+    public PrimObject primitive359(PrimContext context) {
+        if (isZero(context.argumentAt(0)))
+            return perform0("error:", smalltalkString("division by 0"));
+        final PrimObject result = PrimLargeInteger.floorModulo(this, context.argumentAt(0));
+        return result != null ? result : adaptAndPerform("\\\\", context.argumentAt(0));
+    }
+
+    /* Implementation of "gcd:" method of Integer */
+    public PrimObject primitive360(PrimContext context) {
+        final PrimObject result = PrimLargeInteger.gcd(this, context.argumentAt(0));
+        return result != null ? result : perform0("error:", smalltalkString("gcd: argument should be Integer"));
+    }
+
+    /* Implementation of "bitAnd:" method of Integer */
+    public PrimObject primitive361(PrimContext context) {
+        final PrimObject result = PrimLargeInteger.bitAnd(this, context.argumentAt(0));
+        return result != null ? result : perform0("error:", smalltalkString("bitAnd: argument should be Integer"));
+    }
+
+    /* Implementation of "printString" method of Integer */
+    public PrimObject primitive362(PrimContext context) {
+        return smalltalkString(javaValue().toString());
+    }
+
+    private static boolean isZero(PrimObject object) {
+        return object instanceof PrimSmallInteger && ((PrimSmallInteger) object).value() == 0;
+    }
+
+    //Converet types using next smalltalk code:
+    // <code> (aNumber adaptInteger: self) op aNumber adaptToInteger </code>
+    private PrimObject adaptAndPerform(String selector, PrimObject argument) {
+        PrimObject leftOperand  = argument.perform0("adaptInteger:", this);
+        PrimObject rightOperand = argument.perform0("adaptToInteger");
+        return leftOperand.perform0(selector, rightOperand);
     }
 
     /* Answer the number of named instance variables (as opposed to indexed variables) of the receiver.
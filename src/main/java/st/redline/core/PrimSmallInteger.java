@@ -0,0 +1,108 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.core;
+
+/* Instance of Integer holding primitive int value, so SmallInteger range is that of Java int and not long;
+ * results out of it are answered as LargePositiveInteger or LargeNegativeInteger.
+ * Instances in range CACHE_LOW..CACHE_HIGH are preallocated when the system is bootstrapped (see valueOf()),
+ * so equal small values are the same object. Values out of that range are not: == stays identity as for any
+ * other object and = compares values (see PrimObject.primitive351()).
+ * Static methods add, subtract, multiply, lessThan, ... are compiler intrinsics: compiler emits call to them
+ * before sending binary message and sends the message only when intrinsic answers null, i.e. when receiver
+ * or argument is not a small integer or when result overflows.
+ */
+public final class PrimSmallInteger extends PrimObject {
+
+    static final int CACHE_LOW = -128;
+    static final int CACHE_HIGH = 1023;
+
+    private final int value;
+
+    PrimSmallInteger(PrimClass integerClass, int value) {
+        this.value = value;
+        selfClass(integerClass);
+    }
+
+    public static PrimSmallInteger valueOf(PrimClass integerClass, int value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH)
+            return integerClass.smallIntegerCache()[value - CACHE_LOW];
+        return new PrimSmallInteger(integerClass, value);
+    }
+
+    /* Create cached instances, called by Bootstrapper. */
+    public static void preallocate(PrimClass integerClass) {
+        integerClass.smallIntegerCache();
+    }
+
+    public int value() {
+        return value;
+    }
+
+    @Override
+    public Object javaValue() {
+        return value;
+    }
+
+    @Override
+    public void javaValue(Object object) {
+        throw new UnsupportedOperationException("SmallInteger value can't be changed.");
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+
+    private PrimObject with(long result) {
+        if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE)
+            return null;
+        return valueOf(selfClass(), (int) result);
+    }
+
+    public static PrimObject add(PrimObject receiver, PrimObject argument) {
+        if (receiver instanceof PrimSmallInteger && argument instanceof PrimSmallInteger)
+            return ((PrimSmallInteger) receiver).with((long) ((PrimSmallInteger) receiver).value + ((PrimSmallInteger) argument).value);
+        return null;
+    }
+
+    public static PrimObject subtract(PrimObject receiver, PrimObject argument) {
+        if (receiver instanceof PrimSmallInteger && argument instanceof PrimSmallInteger)
+            return ((PrimSmallInteger) receiver).with((long) ((PrimSmallInteger) receiver).value - ((PrimSmallInteger) argument).value);
+        return null;
+    }
+
+    public static PrimObject multiply(PrimObject receiver, PrimObject argument) {
+        if (receiver instanceof PrimSmallInteger && argument instanceof PrimSmallInteger)
+            return ((PrimSmallInteger) receiver).with((long) ((PrimSmallInteger) receiver).value * ((PrimSmallInteger) argument).value);
+        return null;
+    }
+
+    public static PrimObject lessThan(PrimObject receiver, PrimObject argument) {
+        if (receiver instanceof PrimSmallInteger && argument instanceof PrimSmallInteger)
+            return receiver.smalltalkBoolean(((PrimSmallInteger) receiver).value < ((PrimSmallInteger) argument).value);
+        return null;
+    }
+
+    public static PrimObject greaterThan(PrimObject receiver, PrimObject argument) {
+        if (receiver instanceof PrimSmallInteger && argument instanceof PrimSmallInteger)
+            return receiver.smalltalkBoolean(((PrimSmallInteger) receiver).value > ((PrimSmallInteger) argument).value);
+        return null;
+    }
+
+    public static PrimObject lessOrEqual(PrimObject receiver, PrimObject argument) {
+        if (receiver instanceof PrimSmallInteger && argument instanceof PrimSmallInteger)
+            return receiver.smalltalkBoolean(((PrimSmallInteger) receiver).value <= ((PrimSmallInteger) argument).value);
+        return null;
+    }
+
+    public static PrimObject greaterOrEqual(PrimObject receiver, PrimObject argument) {
+        if (receiver instanceof PrimSmallInteger && argument instanceof PrimSmallInteger)
+            return receiver.smalltalkBoolean(((PrimSmallInteger) receiver).value >= ((PrimSmallInteger) argument).value);
+        return null;
+    }
+
+    public static PrimObject equal(PrimObject receiver, PrimObject argument) {
+        if (receiver instanceof PrimSmallInteger && argument instanceof PrimSmallInteger)
+            return receiver.smalltalkBoolean(((PrimSmallInteger) receiver).value == ((PrimSmallInteger) argument).value);
+        return null;
+    }
+}
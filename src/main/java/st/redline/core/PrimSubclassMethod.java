@@ -4,14 +4,13 @@ package st.redline.core;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import st.redline.classloader.SmalltalkClassLoader;
+import st.redline.compiler.InstanceClassGenerator;
 
 public class PrimSubclassMethod extends PrimMethod {
     private static final Logger log = LogManager.getLogger(PrimSubclassMethod.class);
 
     public static final PrimSubclassMethod PRIM_SUBCLASS_METHOD = new PrimSubclassMethod();
 
-    private PrimClass theMetaclass;
-
     protected PrimSubclassMethod() {
         super();
     }
@@ -31,28 +30,32 @@ public class PrimSubclassMethod extends PrimMethod {
         final PrimClass superclass = (PrimClass) primContext.receiver();
         PrimClass newClass;
         PrimClass newMeta;
-        boolean bootstrapping = isBootstrapping();
+        final SmalltalkClassLoader classLoader = superclass.classLoader();
+        boolean bootstrapping = classLoader.isBootstrapping();
 
         if (bootstrapping) {
-            newClass = resolveClass(subclassName);
+            newClass = superclass.resolveClass(subclassName);
             if (newClass == null)
                 throw new RuntimeException("Subclass "+subclassName+" is unexpectedly null.");
         } else {
             newClass = new PrimClass(subclassName, false, classDefinition.instanceVariableNames);
             newMeta = new PrimClass(subclassName, true, classDefinition.classVariableNames);
+            newClass.classLoader(classLoader);
+            newMeta.classLoader(classLoader);
             newClass.selfClass(newMeta);
             newClass.superclass(superclass);
             newMeta.superclass(superclass.selfClass());
-            newMeta.selfClass(theMetaclass);
+            newMeta.selfClass(classLoader.findPrimClass("st.redline.kernel.Metaclass"));
         }
 
         // TODO - Add other definitions to appropriate objects.
         //log.warn("TODO - Add other definitions to appropriate objects.");
 
         if (!bootstrapping) {
-            SmalltalkClassLoader classLoader = classLoader();
             String fullQualifiedName = makeFullyQualifiedName(classLoader, subclassName);
             classLoader.cacheObject(fullQualifiedName, newClass);
+            if (classLoader.generatesInstanceClasses())
+                defineInstanceClass(classLoader, fullQualifiedName, newClass, classDefinition.instanceVariableNames);
         }
 
         return newClass;
@@ -85,8 +88,8 @@ public class PrimSubclassMethod extends PrimMethod {
                 case "instanceVariableNames":
                     if (argument.javaValue() instanceof String) {
                         final String strArgument = (String) argument.javaValue();
-                        if (!strArgument.isEmpty()) {
-                            instanceVariableNames = strArgument.split(" ");
+                        if (!strArgument.trim().isEmpty()) {
+                            instanceVariableNames = strArgument.trim().split("\\s+");
                         }
                     } else {
                         String actualType = argument.javaValue().getClass().getCanonicalName();
@@ -130,12 +133,21 @@ public class PrimSubclassMethod extends PrimMethod {
         return new ClassDefinition(subclassName, instanceVariableNames, classVariableNames, poolDictionaries, category);
     }
 
-    private String makeFullyQualifiedName(SmalltalkClassLoader classLoader, String name) {
-        return classLoader.peekExecutionPackage() + "." + name;
+    /* Generate JVM class with a field per instance variable, instances of newClass will be created from it. */
+    private void defineInstanceClass(SmalltalkClassLoader classLoader, String fullQualifiedName, PrimClass newClass, String[] instanceVariableNames) {
+        final Class<? extends PrimObject> superInstanceClass = newClass.superclass().instanceClass();
+        final String className = classLoader.uniqueClassName(fullQualifiedName + "$Instance");
+        final byte[] classBytes = new InstanceClassGenerator(
+                className.replace('.', '/'),
+                superInstanceClass != null ? superInstanceClass.getName().replace('.', '/') : null,
+                instanceVariableNames != null ? instanceVariableNames : new String[0],
+                newClass.superclass().instSize()).generate();
+        log.trace("Instance class {} generated for {}", className, fullQualifiedName);
+        newClass.instanceClass(classLoader.defineClass(classBytes).asSubclass(PrimObject.class));
     }
 
-    public void metaclass(PrimClass metaclass) {
-        theMetaclass = metaclass;
+    private String makeFullyQualifiedName(SmalltalkClassLoader classLoader, String name) {
+        return classLoader.peekExecutionPackage() + "." + name;
     }
 
     private static class ClassDefinition {
@@ -0,0 +1,80 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.core;
+
+import st.redline.classloader.SmalltalkClassLoader;
+
+import java.lang.invoke.*;
+
+import static java.lang.invoke.MethodType.methodType;
+import static st.redline.compiler.visitor.SmalltalkGeneratingVisitor.DEFAULT_IMPORTED_PACKAGE;
+
+/* Call site of a reference to a global (class or other global object). Compiler emits invokedynamic instruction
+ * for every global reference and ReferenceSite.bootstrap links it. Name is resolved in the package of the class
+ * the reference is compiled in, whatever the receiver is. First execution resolves the name, then the site holds
+ * the binding of resolved name and answers its value, so later executions don't look the name up. Rebinding the
+ * name changes the binding, so the site answers the new value. Name resolved outside its package may be hidden by
+ * global or import of the package added later, so such binding is held until globals of the runtime change.
+ */
+public class ReferenceSite extends MutableCallSite {
+
+    private static final MethodHandle RESOLVE;
+    private static final MethodHandle VALUE;
+
+    private final String name;
+    private final String packageName;
+    private final MethodHandle resolve;
+
+    /* Bootstrap method of invokedynamic instruction generated by compiler:
+       <code>
+       invokedynamic Name(receiver)
+       </code>
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type) {
+        return new ReferenceSite(type, name, packageName(lookup.lookupClass()));
+    }
+
+    // Generated class is named by its package and class name, see ClassGenerator.fullClassName().
+    private static String packageName(Class<?> cls) {
+        final int index = cls.getName().lastIndexOf('.');
+        return index == -1 ? DEFAULT_IMPORTED_PACKAGE : cls.getName().substring(0, index);
+    }
+
+    private ReferenceSite(MethodType type, String name, String packageName) {
+        super(type);
+        this.name = name;
+        this.packageName = packageName;
+        this.resolve = RESOLVE.bindTo(this).asType(type);
+        setTarget(resolve);
+    }
+
+    private PrimObject resolve(PrimObject receiver) {
+        final SmalltalkClassLoader runtime = receiver.classLoader();
+        final SwitchPoint globalsUnchanged = runtime.globalsSwitchPoint();
+        final String localName = packageName + "." + name;
+        final String fullName = importFor(runtime);
+        final PrimObject object = runtime.findObject(fullName);
+        final GlobalBinding binding = runtime.bindingAt(fullName);
+        if (binding != null) {
+            final MethodHandle value = MethodHandles.dropArguments(VALUE.bindTo(binding), 0, PrimObject.class);
+            setTarget(fullName.equals(localName) ? value : globalsUnchanged.guardWithTest(value, resolve));
+        }
+        return object;
+    }
+
+    // Same as importFor() of objects of the class the reference is compiled in.
+    private String importFor(SmalltalkClassLoader runtime) {
+        if (DEFAULT_IMPORTED_PACKAGE.equals(packageName))
+            return packageName + "." + name;
+        return runtime.importForBy(name, packageName);
+    }
+
+    static {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            RESOLVE = lookup.findVirtual(ReferenceSite.class, "resolve", methodType(PrimObject.class, PrimObject.class));
+            VALUE = lookup.findVirtual(GlobalBinding.class, "value", methodType(PrimObject.class));
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Interned message selector. There is exactly one Selector per selector name, so selectors are compared
+ * by identity and method dictionaries are keyed by small integer id instead of String hash and equals.
+ * Send sites intern their selector once when they are linked.
+ * Selectors are shared by runtimes and referenced weakly, selector no method dictionary or send site references
+ * anymore is collected and interned again (with new id) when needed.
+ */
+public final class Selector {
+
+    private static final ConcurrentMap<String, SelectorReference> SELECTORS = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Selector> COLLECTED = new ReferenceQueue<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private final String name;
+    private final int id;
+
+    private Selector(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    public static Selector of(String name) {
+        SelectorReference reference = SELECTORS.get(name);
+        Selector selector = reference != null ? reference.get() : null;
+        if (selector != null)
+            return selector;
+        removeCollected();
+        final Selector newSelector = new Selector(name, NEXT_ID.getAndIncrement());
+        final SelectorReference newReference = new SelectorReference(newSelector, COLLECTED);
+        while (true) {
+            reference = SELECTORS.get(name);
+            selector = reference != null ? reference.get() : null;
+            if (selector != null)
+                return selector;
+            if (reference == null ? SELECTORS.putIfAbsent(name, newReference) == null
+                                  : SELECTORS.replace(name, reference, newReference))
+                return newSelector;
+        }
+    }
+
+    private static void removeCollected() {
+        SelectorReference reference;
+        while ((reference = (SelectorReference) COLLECTED.poll()) != null)
+            SELECTORS.remove(reference.name, reference);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static class SelectorReference extends WeakReference<Selector> {
+
+        private final String name;
+
+        SelectorReference(Selector selector, ReferenceQueue<Selector> queue) {
+            super(selector, queue);
+            this.name = selector.name;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/* Redline Smalltalk, Copyright (c) James C. Ladd. All rights reserved. See LICENSE in the root of this distribution. */
+package st.redline.core;
+
+import java.lang.invoke.*;
+import java.util.Arrays;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/* Call site of a single message send. Compiler emits invokedynamic instruction for every send and
+ * SendSite.bootstrap links it. Site keeps an inline cache: chain of guards checking receiver's class,
+ * each guard calls the method found for that class directly. Monomorphic site has one guard, polymorphic
+ * site grows the chain up to MAX_CACHE_DEPTH classes and after that site becomes megamorphic and does
+ * full method lookup on every send.
+ * Adding a method invalidates inline caches of sites sending that selector, change of class hierarchy
+ * invalidates all inline caches. Both are tracked by switch points of the receiver's runtime (see MethodCache).
+ */
+public class SendSite extends MutableCallSite {
+
+    private static final int MAX_CACHE_DEPTH = 8;
+
+    private static final MethodHandle CLASS_TEST;
+    private static final MethodHandle INVOKE;
+    private static final MethodHandle[] INVOKE_WITH_ARGUMENTS;
+    private static final MethodHandle PERFORM;
+    private static final MethodHandle LOOKUP_AND_INVOKE;
+
+    private final Selector selector;
+    private final boolean superSend;
+    private final boolean arrayArguments;
+    private final int argumentCount;
+    private final MethodHandle fallback;
+    private MethodHandle cache;
+    private SwitchPoint cacheSwitchPoint;
+    private int cacheDepth;
+
+    /* Bootstrap method of invokedynamic instruction generated by compiler:
+       <code>
+       invokedynamic perform(receiver, arg1, ..., argN) [selector]
+       invokedynamic superPerform(receiver, arg1, ..., argN) [selector]
+       invokedynamic perform(receiver, PrimObject[] arguments) [selector]
+       </code>
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, String selector) {
+        return new SendSite(type, Selector.of(selector), "superPerform".equals(name));
+    }
+
+    private SendSite(MethodType type, Selector selector, boolean superSend) {
+        super(type);
+        this.selector = selector;
+        this.superSend = superSend;
+        this.arrayArguments = type.parameterType(type.parameterCount() - 1) == PrimObject[].class;
+        this.argumentCount = type.parameterCount() - 1;
+        this.fallback = withSiteArguments(LOOKUP_AND_INVOKE.bindTo(this));
+        this.cache = fallback;
+        setTarget(fallback);
+    }
+
+    private PrimObject lookupAndInvoke(PrimObject receiver, PrimObject[] arguments) {
+        final PrimClass receiverClass = receiver.selfClass();
+        final PrimClass lookupClass = superSend ? receiverClass.superclass() : receiverClass;
+        final MethodCache methodCache = receiverClass.methodCache();
+        if (methodCache == null)
+            return receiver.perform0(lookupClass, selector, arguments);
+        final SwitchPoint switchPoint = methodCache.switchPoint(selector);
+        final MethodCache.Entry found = methodCache.lookupIn(lookupClass, selector);
+        if (found == null)
+            // Don't cache doesNotUnderstand: sends.
+            return receiver.perform0(lookupClass, selector, arguments);
+        relink(switchPoint, receiverClass, found.method, found.foundInClass);
+        return receiver.apply(found.method, found.foundInClass, selector, arguments);
+    }
+
+    private synchronized void relink(SwitchPoint switchPoint, PrimClass receiverClass, PrimMethod method, PrimClass foundInClass) {
+        if (switchPoint.hasBeenInvalidated())
+            return;
+        if (cacheSwitchPoint != switchPoint) {
+            // Methods were changed since cache was created. Start from empty cache.
+            cacheSwitchPoint = switchPoint;
+            cache = fallback;
+            cacheDepth = 0;
+        }
+        if (cacheDepth < MAX_CACHE_DEPTH) {
+            cache = MethodHandles.guardWithTest(classTest(receiverClass), methodInvoker(method, foundInClass), cache);
+            cacheDepth++;
+        } else if (cacheDepth == MAX_CACHE_DEPTH) {
+            cache = withSiteArguments(MethodHandles.insertArguments(PERFORM, 0, selector, superSend));
+            cacheDepth++;
+        }
+        setTarget(switchPoint.guardWithTest(cache, fallback));
+    }
+
+    private MethodHandle classTest(PrimClass receiverClass) {
+        MethodHandle test = CLASS_TEST.bindTo(receiverClass);
+        return MethodHandles.dropArguments(test, 1, type().parameterList().subList(1, type().parameterCount()));
+    }
+
+    // Sends with few arguments invoke method without collecting arguments into array.
+    private MethodHandle methodInvoker(PrimMethod method, PrimClass foundInClass) {
+        if (!arrayArguments && argumentCount <= PrimContext.MAX_FIELD_ARGUMENTS)
+            return MethodHandles.insertArguments(INVOKE_WITH_ARGUMENTS[argumentCount], 0, method, foundInClass, selector);
+        return withSiteArguments(MethodHandles.insertArguments(INVOKE, 0, method, foundInClass, selector));
+    }
+
+    // Adapt handle of type (PrimObject, PrimObject[]) to the type of this call site.
+    private MethodHandle withSiteArguments(MethodHandle handle) {
+        if (arrayArguments)
+            return handle;
+        return handle.asCollector(PrimObject[].class, argumentCount);
+    }
+
+    private static boolean isReceiverClass(PrimClass receiverClass, PrimObject receiver) {
+        return receiver.selfClass() == receiverClass;
+    }
+
+    private static PrimObject invoke(PrimMethod method, PrimClass foundInClass, Selector selector, PrimObject receiver, PrimObject[] arguments) {
+        return receiver.apply(method, foundInClass, selector, arguments);
+    }
+
+    private static PrimObject invoke0(PrimMethod method, PrimClass foundInClass, Selector selector, PrimObject receiver) {
+        return receiver.apply(method, foundInClass, selector);
+    }
+
+    private static PrimObject invoke1(PrimMethod method, PrimClass foundInClass, Selector selector, PrimObject receiver, PrimObject argument0) {
+        return receiver.apply(method, foundInClass, selector, argument0);
+    }
+
+    private static PrimObject invoke2(PrimMethod method, PrimClass foundInClass, Selector selector, PrimObject receiver, PrimObject argument0, PrimObject argument1) {
+        return receiver.apply(method, foundInClass, selector, argument0, argument1);
+    }
+
+    private static PrimObject invoke3(PrimMethod method, PrimClass foundInClass, Selector selector, PrimObject receiver, PrimObject argument0, PrimObject argument1, PrimObject argument2) {
+        return receiver.apply(method, foundInClass, selector, argument0, argument1, argument2);
+    }
+
+    private static PrimObject perform(Selector selector, boolean superSend, PrimObject receiver, PrimObject[] arguments) {
+        final PrimClass receiverClass = receiver.selfClass();
+        return receiver.perform0(superSend ? receiverClass.superclass() : receiverClass, selector, arguments);
+    }
+
+    static {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            CLASS_TEST = lookup.findStatic(SendSite.class, "isReceiverClass",
+                    methodType(boolean.class, PrimClass.class, PrimObject.class));
+            INVOKE = lookup.findStatic(SendSite.class, "invoke",
+                    methodType(PrimObject.class, PrimMethod.class, PrimClass.class, Selector.class, PrimObject.class, PrimObject[].class));
+            INVOKE_WITH_ARGUMENTS = new MethodHandle[PrimContext.MAX_FIELD_ARGUMENTS + 1];
+            for (int i = 0; i <= PrimContext.MAX_FIELD_ARGUMENTS; i++) {
+                final Class<?>[] argumentTypes = new Class<?>[i + 1];
+                Arrays.fill(argumentTypes, PrimObject.class);
+                INVOKE_WITH_ARGUMENTS[i] = lookup.findStatic(SendSite.class, "invoke" + i,
+                        methodType(PrimObject.class, PrimMethod.class, PrimClass.class, Selector.class).appendParameterTypes(argumentTypes));
+            }
+            PERFORM = lookup.findStatic(SendSite.class, "perform",
+                    methodType(PrimObject.class, Selector.class, boolean.class, PrimObject.class, PrimObject[].class));
+            LOOKUP_AND_INVOKE = lookup.findVirtual(SendSite.class, "lookupAndInvoke",
+                    methodType(PrimObject.class, PrimObject.class, PrimObject[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
@@ -1,3 +1,4 @@
+import org.antlr.v4.runtime.CharStream;
 import org.apache.commons.io.IOUtils;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -6,9 +7,31 @@ import st.redline.core.*;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.SwitchPoint;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 
@@ -75,6 +98,14 @@ public class BasicCompilerTest {
         assertEquals(result.javaValue(), "hello:world:");
     }
 
+    @Test
+    public void test_compiler_symbolIdentity() throws Exception {
+        assertEquals(runString("^ #hello:world: == #hello:world:", "SymbolIdentityTest"), stClassLoader.trueInstance());
+        final ArrayList<PrimObject> arrayData = (ArrayList<PrimObject>) runString("^ #(#first first)", "SymbolArrayIdentityTest").javaValue();
+        assertSame(arrayData.get(0), arrayData.get(1));
+        assertSame(arrayData.get(0), stClassLoader.internedSymbolAt("first"));
+    }
+
     @Test
     public void test_compiler_literal_array() throws Exception {
         final PrimObject result = runString("^ #(first 1234 'hello' Symbol $; $4 $. 16r1F2A true nil)", "LiteralArrayTest");
@@ -96,6 +127,52 @@ public class BasicCompilerTest {
         assertEquals(arrayData.get(9), stClassLoader.nilInstance());
     }
 
+    @Test
+    public void test_compiler_literalIdentity() throws Exception {
+        assertEquals(runString("| b | b := [ 'hello' ]. ^ b value == b value", "StringLiteralIdentityTest"), stClassLoader.trueInstance());
+        assertEquals(runString("| b | b := [ #(1 $a (2 3)) ]. ^ b value == b value", "ArrayLiteralIdentityTest"), stClassLoader.trueInstance());
+        assertEquals(runString("^ 1.5", "FloatLiteralTest").javaValue(), 1.5);
+    }
+
+    @Test
+    public void test_compiler_concurrentLiterals() throws Exception {
+        // Threads executing literal for the first time at once get the same object.
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 10; i++) {
+                final PrimObject block = runString("^ [ 'hello' ]", "ConcurrentLiteralTest" + i);
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<PrimObject>> literals = new ArrayList<>();
+                for (int j = 0; j < 8; j++)
+                    literals.add(executor.submit(() -> {
+                        start.await();
+                        return block.perform("value");
+                    }));
+                start.countDown();
+                for (Future<PrimObject> each : literals)
+                    assertSame(literals.get(0).get(30, TimeUnit.SECONDS), each.get(30, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_compiler_characterIdentity() throws Exception {
+        assertEquals(runString("^ (Character value: 97) == $a", "CharacterIdentityTest"), stClassLoader.trueInstance());
+        assertEquals(runString("^ $a asciiValue", "CharacterValueTest").javaValue(), 97);
+    }
+
+    @Test
+    public void test_compiler_globalRebinding() throws Exception {
+        stClassLoader.cacheObject("st.redline.test.ReboundGlobal", stClassLoader.trueInstance());
+        final PrimObject block = runString("^ [ ReboundGlobal ]", "GlobalRebindingTest");
+        assertEquals(block.perform("value"), stClassLoader.trueInstance());
+        stClassLoader.cacheObject("st.redline.test.ReboundGlobal", stClassLoader.falseInstance());
+        assertEquals(block.perform("value"), stClassLoader.falseInstance());
+    }
+
     @Test
     public void test_compiler_boolean_true() throws Exception {
         final PrimObject result = runString("^ true", "BooleanTrueTest");
@@ -192,6 +269,68 @@ public class BasicCompilerTest {
         }
     }
 
+    @Test
+    public void test_compiler_integerArithmetic() throws Exception {
+        assertEquals(runString("^ 3 + 4 * 2 - 1", "IntegerArithmeticTest").javaValue(), 13);
+        assertEquals(runString("^ 10 benchFib", "IntegerBenchFibTest").javaValue(), 177);
+        assertEquals(runString("^ 3 <= 4", "IntegerCompareTest"), stClassLoader.trueInstance());
+        assertEquals(runString("^ 1000000 = 1000000", "IntegerEqualsTest"), stClassLoader.trueInstance());
+        assertEquals(runString("^ 1000000 == (999999 + 1)", "IntegerIdentityTest"), stClassLoader.falseInstance());
+        assertEquals(runString("^ 1000 == (999 + 1)", "CachedIntegerIdentityTest"), stClassLoader.trueInstance());
+        assertEquals(runString("| n | n := 1000000. ^ n == n", "IntegerSelfIdentityTest"), stClassLoader.trueInstance());
+    }
+
+    @Test
+    public void test_compiler_largeIntegerArithmetic() throws Exception {
+        final PrimObject result = runString("^ 2147483647 + 1", "LargeIntegerOverflowTest");
+        assertEquals(result.javaValue(), new java.math.BigInteger("2147483648"));
+        assertEquals(result.selfClass().name(), "LargePositiveInteger");
+        assertEquals(runString("^ 30 factorial // 29 factorial", "LargeIntegerDivideTest").javaValue(), 30);
+        assertEquals(runString("^ 30 factorial = 30 factorial", "LargeIntegerEqualsTest"), stClassLoader.trueInstance());
+        assertEquals(runString("^ 30 factorial == 30 factorial", "LargeIntegerIdentityTest"), stClassLoader.falseInstance());
+    }
+
+    @Test
+    public void test_compiler_inlinedBlocks() throws Exception {
+        assertEquals(runString("| sum | sum := 0. 1 to: 10 do: [ :i | i \\\\ 2 = 1 ifTrue: [ sum := sum + i ] ]. ^ sum", "InlinedToDoTest").javaValue(), 25);
+        assertEquals(runString("| n | n := 0. [ n < 20 ] whileTrue: [ n := n + 1 ]. ^ n", "InlinedWhileTest").javaValue(), 20);
+        assertEquals(runString("| n | n := 0. 5 timesRepeat: [ n := n + 2 ]. ^ n", "InlinedTimesRepeatTest").javaValue(), 10);
+        assertEquals(runString("^ (3 > 4 or: [ 2 < 1 ]) ifTrue: [ 'Fail' ] ifFalse: [ 'Success' ]", "InlinedConditionalTest").javaValue(), "Success");
+        assertEquals(runString("| sum | sum := 0. 2147483646 to: 2147483647 do: [ :i | sum := sum + 1 ]. ^ sum", "InlinedToDoOverflowTest").javaValue(), 2);
+        // Guard fails for LargeInteger and inner block is created, it can't reference loop variable in JVM local.
+        assertEquals(runString("| sum | sum := 0. 1 to: 3 do: [ :i | 2147483648 to: 2147483649 do: [ :j | sum := sum + i ] ]. ^ sum", "InlinedToDoNestedFallbackTest").javaValue(), 12);
+    }
+
+    @Test
+    public void test_compiler_blockAnswer() throws Exception {
+        assertEquals(runString("^ [:x | 1 to: 5 do: [:i | i = x ifTrue: [^ i * 10]]. 0] value: 3", "BlockAnswerTest").javaValue(), 30);
+        assertEquals(runString("| each | each := [:aBlock | 1 to: 5 do: [:i | aBlock value: i]]. each value: [:i | i = 4 ifTrue: [^ i * 10]]. ^ 0", "NestedBlockAnswerTest").javaValue(), 40);
+        assertEquals(runString("2147483648 to: 2147483650 do: [:i | i = 2147483649 ifTrue: [^ 7]]. ^ 0", "FallbackBlockAnswerTest").javaValue(), 7);
+    }
+
+    @Test
+    public void test_compiler_class_withInstanceClass() throws Exception {
+        final PrimObject result;
+        stClassLoader.generatesInstanceClasses(true);
+        try {
+            result = runScript("smalltalk/compiler/ClassFields_test.st", "ClassFieldsInstanceClass_test");
+        }
+        finally {
+            stClassLoader.generatesInstanceClasses(false);
+        }
+        final PrimClass testClass = (PrimClass) result;
+        assertNotNull(testClass.instanceClass());
+
+        final PrimObject instance = testClass.primitiveNew();
+        assertEquals(instance.getClass(), testClass.instanceClass());
+        assertEquals(instance.perform("fieldA"), stClassLoader.nilInstance());
+
+        instance.perform(instance.smalltalkInteger(101), "fieldA:");
+        assertEquals(instance.perform("fieldA").javaValue(), 101);
+        assertEquals(((PrimObject) instance.getClass().getField("fieldA").get(instance)).javaValue(), 101);
+        assertEquals(instance.getInstanceVar("fieldA").javaValue(), 101);
+    }
+
     @Test
     public void test_compiler_classFields() throws Exception {
         final PrimObject result = runScript("smalltalk/compiler/ClassVariable_test.st", "ClassVariableTest");
@@ -219,6 +358,275 @@ public class BasicCompilerTest {
         }
     }
 
+    @Test
+    public void test_compiler_warmPackage() throws Exception {
+        stClassLoader.warmsPackages(true);
+        final Class<?> scriptClass;
+        try {
+            scriptClass = stClassLoader.loadScript("smalltalk.compiler.ClassMethod_test");
+        }
+        finally {
+            stClassLoader.warmsPackages(false);
+        }
+        final Object script = scriptClass.getDeclaredConstructor().newInstance();
+        final PrimObject result = (PrimObject) scriptClass.getMethod("moduleAnswer").invoke(script);
+        assertTrue(result instanceof PrimClass);
+        assertEquals(((PrimClass) result).name(), "ClassMethodCompilerTest");
+    }
+
+    @Test
+    public void test_compiler_referencePackage() throws Exception {
+        // Method answers global of package it is defined in, whichever receiver it is sent to.
+        final SmalltalkClassLoader runtime = newClassLoader();
+        final PrimObject thing = compileSource(runtime, sourceFromString("^ Object subclass: #Thing", "ThingA", "st.redline.refs.a"));
+        final PrimObject holder = compileSource(runtime, sourceFromString(
+                "Object subclass: #Holder.\n\n!Holder methodsFor: 'test'!\nthing\n    ^ Thing!\n\nbag\n    ^ Bag! !\n\nHolder",
+                "HolderA", "st.redline.refs.a"));
+        final PrimObject otherThing = compileSource(runtime, sourceFromString("Object subclass: #Thing. ^ Thing", "ThingB", "st.redline.refs.b"));
+        assertNotSame(thing, otherThing);
+        assertSame(((PrimClass) holder).primitiveNew().perform("thing"), thing);
+        assertSame(holder.perform("new").perform("thing"), thing);
+
+        // Global of the package added later hides global of default package.
+        assertSame(((PrimClass) holder).primitiveNew().perform("bag"), runtime.findObject("st.redline.kernel.Bag"));
+        final PrimObject bag = compileSource(runtime, sourceFromString("^ Object subclass: #Bag", "BagA", "st.redline.refs.a"));
+        assertSame(((PrimClass) holder).primitiveNew().perform("bag"), bag);
+    }
+
+    @Test
+    public void test_runtime_layoutChanges() throws Exception {
+        // Instance variable sites are guarded by layout switch point of their runtime.
+        final SwitchPoint layout = stClassLoader.methodCache().layoutSwitchPoint();
+        final SmalltalkClassLoader runtime = newClassLoader();
+        compileSource(runtime, sourceFromString("^ Object subclass: #LayoutTest", "LayoutTest"));
+        assertTrue(runtime.isCachedObject("st.redline.test.LayoutTest"));
+        assertFalse(layout.hasBeenInvalidated());
+
+        runString("^ Object subclass: #LayoutTest", "LayoutTest");
+        assertTrue(layout.hasBeenInvalidated());
+    }
+
+    @Test
+    public void test_classLoader_concurrentDefinitions() throws Exception {
+        // Classes of package find each other while they are defined by different threads.
+        final SmalltalkClassLoader runtime = newClassLoader();
+        runtime.importAll("smalltalk.compiler.mutual");
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<PrimObject> first = executor.submit(() -> runtime.findObject("smalltalk.compiler.mutual.First"));
+            final Future<PrimObject> second = executor.submit(() -> runtime.findObject("smalltalk.compiler.mutual.Second"));
+            assertEquals(((PrimClass) first.get(30, TimeUnit.SECONDS)).name(), "First");
+            assertEquals(((PrimClass) second.get(30, TimeUnit.SECONDS)).name(), "Second");
+            assertSame(runtime.findObject("smalltalk.compiler.mutual.First"), first.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_bootstrap_imageSnapshot() throws Exception {
+        final File image = File.createTempFile("redline", ".image");
+        assertTrue(image.delete());
+        System.setProperty(ImageSnapshot.FILE_PROPERTY, image.getPath());
+        try {
+            newClassLoader();
+            assertTrue(image.isFile());
+            // Snapshot is saved again only when it is not restored.
+            assertTrue(image.setLastModified(0));
+            final SmalltalkClassLoader restored = newClassLoader();
+            assertEquals(image.lastModified(), 0);
+
+            final PrimObject integer = restored.findObject("st.redline.kernel.Integer");
+            final PrimObject sum = integer.smalltalkInteger(3).perform(integer.smalltalkInteger(4), "+");
+            assertEquals(sum.javaValue(), 7);
+            assertEquals(sum.selfClass(), integer);
+            assertEquals(restored.nilInstance().selfClass(), restored.findObject("st.redline.kernel.UndefinedObject"));
+        }
+        finally {
+            System.clearProperty(ImageSnapshot.FILE_PROPERTY);
+            image.delete();
+        }
+    }
+
+    @Test
+    public void test_runtime_unloads() throws Exception {
+        final WeakReference<SmalltalkClassLoader> runtime = new WeakReference<>(usedRuntime());
+        for (int i = 0; i < 50 && runtime.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(runtime.get());
+    }
+
+    // Runtime which sent messages, so dispatch caches hold its classes.
+    private static SmalltalkClassLoader usedRuntime() {
+        final SmalltalkClassLoader runtime = newClassLoader();
+        assertNotSame(runtime.methodCache(), stClassLoader.methodCache());
+        final PrimObject integer = runtime.findObject("st.redline.kernel.Integer");
+        assertEquals(integer.smalltalkInteger(3).perform(integer.smalltalkInteger(4), "+").javaValue(), 7);
+        return runtime;
+    }
+
+    @Test
+    public void test_classCache() throws Exception {
+        final Path directory = Files.createTempDirectory("redline-classes");
+        System.setProperty(CompiledClassCache.DIRECTORY_PROPERTY, directory.toString());
+        try {
+            final StringSource source = new StringSource("^ 'cached'", "ClassCacheTest", "st.redline.cache");
+            assertEquals(compileSource(newClassLoader(), source).javaValue(), "cached");
+            assertEquals(source.streams, 1);
+            final Path packageDirectory = directory.resolve("st/redline/cache");
+            final List<Path> cached = files(packageDirectory);
+            assertEquals(cached.size(), 1);
+
+            // Other runtime loads class from cache without compiling source.
+            assertEquals(compileSource(newClassLoader(), source).javaValue(), "cached");
+            assertEquals(source.streams, 1);
+
+            // Changed source has other key, its class replaces class of old source.
+            final StringSource changed = new StringSource("^ 'changed'", "ClassCacheTest", "st.redline.cache");
+            assertEquals(compileSource(newClassLoader(), changed).javaValue(), "changed");
+            assertEquals(changed.streams, 1);
+            final List<Path> replaced = files(packageDirectory);
+            assertEquals(replaced.size(), 1);
+            assertNotEquals(replaced, cached);
+
+            // Corrupt class is compiled again.
+            Files.write(replaced.get(0), new byte[] { 1, 2, 3 });
+            assertEquals(compileSource(newClassLoader(), changed).javaValue(), "changed");
+            assertEquals(changed.streams, 2);
+            assertEquals(compileSource(newClassLoader(), changed).javaValue(), "changed");
+            assertEquals(changed.streams, 2);
+        }
+        finally {
+            System.clearProperty(CompiledClassCache.DIRECTORY_PROPERTY);
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void test_classCache_unusableDirectory() throws Exception {
+        final Path directory = Files.createTempDirectory("redline-classes");
+        try {
+            // Missing directory is created.
+            final Path missing = directory.resolve("missing");
+            System.setProperty(CompiledClassCache.DIRECTORY_PROPERTY, missing.toString());
+            final StringSource source = new StringSource("^ 'compiled'", "ClassCacheDirectoryTest", "st.redline.cache");
+            assertEquals(compileSource(newClassLoader(), source).javaValue(), "compiled");
+            assertEquals(source.streams, 1);
+            assertEquals(files(missing.resolve("st/redline/cache")).size(), 1);
+
+            // Source is compiled when directory is not a directory.
+            final Path file = Files.createFile(directory.resolve("file"));
+            System.setProperty(CompiledClassCache.DIRECTORY_PROPERTY, file.toString());
+            assertEquals(compileSource(newClassLoader(), source).javaValue(), "compiled");
+            assertEquals(source.streams, 2);
+            assertEquals(compileSource(newClassLoader(), source).javaValue(), "compiled");
+            assertEquals(source.streams, 3);
+        }
+        finally {
+            System.clearProperty(CompiledClassCache.DIRECTORY_PROPERTY);
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void test_precompiledClasses() throws Exception {
+        final Path classes = Files.createTempDirectory("redline-precompiled");
+        try {
+            final Path packageDirectory = Files.createDirectories(classes.resolve("st/redline/precompiled"));
+            Files.write(packageDirectory.resolve("First.st"), "^ 'first'".getBytes(StandardCharsets.UTF_8));
+            Files.write(packageDirectory.resolve("Second.st"), "^ 'second'".getBytes(StandardCharsets.UTF_8));
+            PrecompiledClasses.main(new String[] { classes.toString(), "st.redline.precompiled" });
+
+            final Path index = classes.resolve(PrecompiledClasses.DIRECTORY + "/index.properties");
+            final Path firstClass = classes.resolve(PrecompiledClasses.DIRECTORY + "/st/redline/precompiled/First.class");
+            assertTrue(Files.isRegularFile(index));
+            assertTrue(Files.isRegularFile(firstClass));
+
+            final PrecompiledClasses precompiled = PrecompiledClasses.in(classLoaderOf(classes));
+            assertFalse(precompiled.isEmpty());
+            final List<Source> sources = new SmalltalkSourceFinder(new SourceFactory(), new String[] { classes.toString() }).findIn("st.redline.precompiled");
+            assertEquals(sources.size(), 2);
+            for (Source source : sources)
+                assertNotNull(precompiled.load(source));
+            assertArrayEquals(precompiled.load(new StringSource("^ 'first'", "First", "st.redline.precompiled")), Files.readAllBytes(firstClass));
+
+            // Class of changed source is compiled.
+            assertNull(precompiled.load(new StringSource("^ 'changed'", "First", "st.redline.precompiled")));
+            assertNull(precompiled.load(new StringSource("^ 'first'", "Third", "st.redline.precompiled")));
+
+            // Classes built by other compiler are ignored.
+            final Properties properties = new Properties();
+            try (InputStream input = Files.newInputStream(index)) {
+                properties.load(input);
+            }
+            properties.setProperty("version", "other");
+            try (OutputStream output = Files.newOutputStream(index)) {
+                properties.store(output, null);
+            }
+            assertTrue(PrecompiledClasses.in(classLoaderOf(classes)).isEmpty());
+        }
+        finally {
+            delete(classes);
+        }
+    }
+
+    // Class loader seeing only the classes directory, not the classes Redline is built into.
+    private static ClassLoader classLoaderOf(Path classes) throws IOException {
+        return new URLClassLoader(new URL[] { classes.toUri().toURL() }, null);
+    }
+
+    private static List<Path> files(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void test_sourceFinder_jar() throws Exception {
+        final File jar = File.createTempFile("redline-sources", ".jar");
+        try {
+            try (JarOutputStream output = new JarOutputStream(new FileOutputStream(jar))) {
+                for (String entry : new String[] { "st/redline/jar/First.st", "st/redline/jar/more/Second.st", "st/redline/jar/Third.st" }) {
+                    output.putNextEntry(new JarEntry(entry));
+                    output.write(("^ '" + entry + "'").getBytes(StandardCharsets.UTF_8));
+                    output.closeEntry();
+                }
+            }
+            final JarRegistry jars = new JarRegistry();
+            final SmalltalkSourceFinder sourceFinder = new SmalltalkSourceFinder(new SourceFactory(jars), new String[] { jar.getPath() });
+
+            final List<Source> sources = sourceFinder.findIn("st.redline.jar");
+            assertEquals(sources.size(), 2);
+            assertEquals(sources.get(0).fullClassName(), "st/redline/jar/First");
+            assertEquals(sources.get(1).className(), "Third");
+            assertEquals(sourceFinder.findIn("st.redline.jar.more").size(), 1);
+            assertEquals(sourceFinder.findIn("st.redline").size(), 0);
+
+            // Jar is opened again when it is read after registry is closed.
+            jars.close();
+            assertEquals(sources.get(0).contents(), "^ 'st/redline/jar/First.st'");
+            jars.close();
+        }
+        finally {
+            jar.delete();
+        }
+    }
+
+    private static SmalltalkClassLoader newClassLoader() {
+        final String[] classPaths = System.getProperty("java.class.path").split(File.pathSeparator);
+        final SmalltalkSourceFinder sourceFinder = new SmalltalkSourceFinder(new SourceFactory(), classPaths);
+        return new SmalltalkClassLoader(BasicCompilerTest.class.getClassLoader(), sourceFinder, new Bootstrapper());
+    }
+
     /* Compile Smalltalk code and execute.
      * Returns result of execution as Smalltalk object. */
     private static PrimObject runString(String sourceCode, String className) throws Exception {
@@ -227,7 +635,11 @@ public class BasicCompilerTest {
     }
 
     private static PrimObject compileSource(Source src) throws Exception {
-        final Class<?> CompiledStClass = stClassLoader.compileToClass(src);
+        return compileSource(stClassLoader, src);
+    }
+
+    private static PrimObject compileSource(SmalltalkClassLoader runtime, Source src) throws Exception {
+        final Class<?> CompiledStClass = runtime.compileToClass(src);
         assertTrue(PrimObject.class.isAssignableFrom(CompiledStClass.getSuperclass()));
 
         final Object testInstance = CompiledStClass.getDeclaredConstructor().newInstance();
@@ -250,13 +662,19 @@ public class BasicCompilerTest {
     }
 
     private static Source sourceFromString(String smalltalkCode, String className) {
-        return new StringSource(smalltalkCode, className, "st.redline.test");
+        return sourceFromString(smalltalkCode, className, "st.redline.test");
+    }
+
+    private static Source sourceFromString(String smalltalkCode, String className, String packageName) {
+        return new StringSource(smalltalkCode, className, packageName);
     }
 
     private static class StringSource implements Source {
         private final String content;
         private final String className;
         private final String packageName;
+        // Times source was read by compiler.
+        private int streams;
 
         public StringSource(String content, String className, String packageName) {
             this.content = content;
@@ -303,5 +721,11 @@ public class BasicCompilerTest {
         public String classpath() {
             return ".";
         }
+
+        @Override
+        public CharStream stream() {
+            streams++;
+            return Source.super.stream();
+        }
     }
 }
\ No newline at end of file
@@ -5,14 +5,20 @@ import org.junit.Test;
 import st.redline.classloader.Source;
 import st.redline.compiler.Compiler;
 import st.redline.compiler.SmalltalkParserException;
+import st.redline.compiler.generated.SmalltalkParser;
 
 import java.io.*;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class ParserTest {
@@ -38,6 +44,97 @@ public class ParserTest {
         assertNotNull(parseTree);
     }
 
+    @Test
+    public void test_minus_adjacency() {
+        // Minus followed by whitespace is a symbol of literal array, not sign of number.
+        final ParseTree symbol = parse("^ #(1 - 2)");
+        assertEquals(texts(symbol, SmalltalkParser.StIntegerContext.class), Arrays.asList("1", "2"));
+        assertEquals(texts(symbol, SmalltalkParser.BareSymbolContext.class), Arrays.asList("-"));
+
+        final ParseTree negative = parse("^ #(1 -2)");
+        assertEquals(texts(negative, SmalltalkParser.StIntegerContext.class), Arrays.asList("1", "-2"));
+        assertEquals(texts(negative, SmalltalkParser.BareSymbolContext.class), Arrays.asList());
+
+        assertEquals(texts(parse("^ 3-2"), SmalltalkParser.BinaryMessageContext.class), Arrays.asList("-2"));
+        assertEquals(texts(parse("^ 3 - -2"), SmalltalkParser.StIntegerContext.class), Arrays.asList("3", "-2"));
+    }
+
+    @Test
+    public void test_block_header_pipe() {
+        // Pipe ending block parameters is not part of binary selector following it.
+        final ParseTree temporaries = parse("^ [:x || t | t := x. t]");
+        assertEquals(texts(temporaries, SmalltalkParser.BlockParamListContext.class), Arrays.asList(":x"));
+        assertEquals(texts(temporaries, SmalltalkParser.TempsContext.class), Arrays.asList("|t|"));
+
+        final ParseTree negative = parse("^ [:x |-1]");
+        assertEquals(texts(negative, SmalltalkParser.BlockParamListContext.class), Arrays.asList(":x"));
+        assertEquals(texts(negative, SmalltalkParser.StIntegerContext.class), Arrays.asList("-1"));
+    }
+
+    @Test
+    public void test_methodDefinitions() {
+        // Method definitions are rewritten into messages adding them to class named by source.
+        assertRewritten("- foo\n    ^ 1\n", "ParserTest basicAddSelector: #foo withMethod: [ ^ 1 ].");
+        assertRewritten("- + other\n    ^ other", "ParserTest basicAddSelector: #+ withMethod: [ :other | ^ other ].");
+        assertRewritten("- at: index put: value\n    ^ value", "ParserTest basicAddSelector: #at:put: withMethod: [ :index :value | ^ value ].");
+        assertRewritten("- #foo\n", "ParserTest basicAddSelector: #UnknownSelector withMethod: [ #foo ].");
+        assertRewritten("+ new: size\n    ^ size", "ParserTest class basicAddSelector: #new: withMethod: [ :size | ^ size ].");
+
+        // Method ends where next starts, last method at the end of source.
+        assertRewritten("Object subclass: #ParserTest.\n\n- foo\n    ^ 1\n\n- bar\n    ^ 2",
+                "Object subclass: #ParserTest. ParserTest basicAddSelector: #foo withMethod: [ ^ 1 ]. ParserTest basicAddSelector: #bar withMethod: [ ^ 2 ].");
+
+        // Minus or plus starting the line without space after it is not a method definition.
+        assertRewritten("^ 3\n-1", "^ 3 - 1");
+        assertRewritten("- foo\n    ^ 3\n+1", "ParserTest basicAddSelector: #foo withMethod: [ ^ 3 + 1 ].");
+    }
+
+    @Test
+    public void test_methodGroups() {
+        // Sources in chunk format are left as they are, '+ aNumber' is header of binary method.
+        final ParseTree tree = parse("!ParserTest methodsFor: 'arithmetic'!\n+ aNumber\n    ^ aNumber!\n\n- aNumber\n    ^ aNumber! !");
+        assertEquals(texts(tree, SmalltalkParser.BinaryMethodHeaderContext.class), Arrays.asList("+aNumber", "-aNumber"));
+        assertEquals(texts(tree, SmalltalkParser.KeywordMessageContext.class), Arrays.asList());
+    }
+
+    @Test
+    public void test_methodDefinition_bytecode() {
+        // Rewritten definition compiles to same class as message written out on the same lines.
+        final byte[] definition = new Compiler(new TestSource("- at: index put: value\n    ^ value", "st.redline.test.ParserTest")).compile();
+        final byte[] message = new Compiler(new TestSource("ParserTest basicAddSelector: #at:put: withMethod: [ :index :value |\n    ^ value ].", "st.redline.test.ParserTest")).compile();
+        assertArrayEquals(message, definition);
+    }
+
+    private static void assertRewritten(String sourceCode, String rewritten) {
+        assertEquals(parse(sourceCode).getText(), parse(rewritten).getText());
+    }
+
+    @Test
+    public void test_syntaxError() {
+        // SLL pass bails out silently, error is reported by listener of the LL pass.
+        try {
+            parse("x := 3 +.\n^ x");
+            fail("SmalltalkParserException should be thrown");
+        }
+        catch (SmalltalkParserException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Parser error at st.redline.test.ParserTest line 1:8 "));
+        }
+    }
+
+    private static ParseTree parse(String sourceCode) {
+        return new Compiler(new TestSource(sourceCode, "st.redline.test.ParserTest")).parsedSourceContents();
+    }
+
+    // Texts of nodes of given type in tree.
+    private static List<String> texts(ParseTree tree, Class<? extends ParseTree> type) {
+        final List<String> texts = new ArrayList<>();
+        if (type.isInstance(tree))
+            texts.add(tree.getText());
+        for (int i = 0; i < tree.getChildCount(); i++)
+            texts.addAll(texts(tree.getChild(i), type));
+        return texts;
+    }
+
     @Test
     public void testSmalltalkParser() throws IOException {
         int totalTestFiles = parserTestFiles.size();